@@ -0,0 +1,494 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package com.bitplan.radolan;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+import com.bitplan.util.CacheIndex;
+import com.bitplan.util.CachedUrl;
+
+import cs.fau.de.since.radolan.Composite;
+
+/**
+ * reader for the monthly historical archives e.g. SF201801.tar.gz - the
+ * archive is decompressed once to a plain tar file next to the cached archive
+ * and the offsets of the members are indexed so that a single composite can
+ * be read by seeking to its member
+ * 
+ * the index is kept in a sidecar file next to the cached archive e.g.
+ * SF201801.tar.gz.idx with a line of name, offset and size per member
+ *
+ * the derived tar file, the index file and the split members are tracked by
+ * the CacheIndex when they are in the cache so that they count against the
+ * budget and are evicted like the archive itself
+ *
+ * @author wf
+ *
+ */
+public class CompositeArchive implements Closeable {
+  // prepare a LOGGER
+  protected static Logger LOGGER = Logger.getLogger("com.bitplan.radolan");
+  public static boolean debug = false;
+  // re-cache the members as single files in a directory next to the archive
+  public static boolean splitMembers = false;
+
+  public static final String INDEX_EXTENSION = ".idx";
+  public static final String INDEX_HEADER = "# composite archive index v1 ";
+
+  // maximum number of archives that are kept open
+  public static int maxOpenArchives = 12;
+  // the open archives - least recently used first
+  private static LinkedHashMap<File, CompositeArchive> archives = new LinkedHashMap<File, CompositeArchive>(
+      16, 0.75f, true);
+
+  private File tarFile;
+  private File indexFile;
+  private File memberDir;
+  private FileChannel channel;
+  // members by their file name
+  private Map<String, Member> members = new LinkedHashMap<String, Member>();
+
+  /**
+   * a member of the tar archive
+   */
+  public static class Member {
+    String name;
+    long offset; // position of the content in the tar file
+    long size;
+
+    public Member(String name, long offset, long size) {
+      this.name = name;
+      this.offset = offset;
+      this.size = size;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    public long getSize() {
+      return size;
+    }
+  }
+
+  /**
+   * open the given plain tar file and index its members
+   *
+   * @param tarFile
+   * @throws IOException
+   */
+  public CompositeArchive(File tarFile) throws IOException {
+    this(tarFile, new File(tarFile.getPath() + INDEX_EXTENSION));
+  }
+
+  /**
+   * open the given plain tar file - the members are read from the given index
+   * file if it is valid otherwise the tar file is scanned and the index file
+   * is written
+   *
+   * @param tarFile
+   * @param indexFile
+   * @throws IOException
+   */
+  public CompositeArchive(File tarFile, File indexFile) throws IOException {
+    this.tarFile = tarFile;
+    this.indexFile = indexFile;
+    String name = tarFile.getName();
+    if (name.endsWith(".tar"))
+      name = name.substring(0, name.length() - ".tar".length());
+    else
+      name = name + ".members";
+    this.memberDir = new File(tarFile.getParentFile(), name);
+    if (!readIndex()) {
+      index();
+      writeIndex();
+    }
+    getChannel();
+  }
+
+  public File getTarFile() {
+    return tarFile;
+  }
+
+  public File getIndexFile() {
+    return indexFile;
+  }
+
+  public File getMemberDir() {
+    return memberDir;
+  }
+
+  /**
+   * read the members from the index file
+   *
+   * @return true if the index file is available and fits the tar file
+   * @throws IOException
+   */
+  protected boolean readIndex() throws IOException {
+    if (!indexFile.exists())
+      return false;
+    List<String> lines = Files.readAllLines(indexFile.toPath(),
+        StandardCharsets.UTF_8);
+    if (lines.isEmpty()
+        || !lines.get(0).equals(INDEX_HEADER + tarFile.length())) {
+      if (debug)
+        LOGGER.log(Level.INFO, "ignoring outdated index " + indexFile.getPath());
+      return false;
+    }
+    members.clear();
+    for (String line : lines.subList(1, lines.size())) {
+      String[] fields = line.split("\t");
+      if (fields.length != 3)
+        throw new IOException("invalid index line " + line + " in "
+            + indexFile.getPath());
+      Member member = new Member(fields[0], Long.parseLong(fields[1]),
+          Long.parseLong(fields[2]));
+      members.put(member.name, member);
+    }
+    return true;
+  }
+
+  /**
+   * write the members to the index file
+   *
+   * @throws IOException
+   */
+  protected void writeIndex() throws IOException {
+    List<String> lines = new ArrayList<String>();
+    lines.add(INDEX_HEADER + tarFile.length());
+    for (Member member : members.values()) {
+      lines.add(member.name + "\t" + member.offset + "\t" + member.size);
+    }
+    File tmpFile = new File(indexFile.getPath() + ".tmp");
+    Files.write(tmpFile.toPath(), lines, StandardCharsets.UTF_8);
+    Files.move(tmpFile.toPath(), indexFile.toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    track(indexFile, true);
+  }
+
+  /**
+   * record the given derived file in the cache index if it is in the cache
+   *
+   * @param file
+   * @param added
+   *          - true if the file has just been written otherwise it has been
+   *          accessed
+   * @throws IOException
+   */
+  protected static void track(File file, boolean added) throws IOException {
+    File root = CachedUrl.getCacheRoot();
+    if (!file.toPath().toAbsolutePath().normalize()
+        .startsWith(root.toPath().toAbsolutePath().normalize()))
+      return;
+    CacheIndex cacheIndex = CacheIndex.getInstance(root);
+    if (added)
+      cacheIndex.added(file);
+    else
+      cacheIndex.accessed(file);
+  }
+
+  /**
+   * re-cache the members as single files in the member directory so that a
+   * member can be read without the tar file
+   *
+   * @throws IOException
+   */
+  public synchronized void split() throws IOException {
+    memberDir.mkdirs();
+    for (Member member : members.values()) {
+      File memberFile = new File(memberDir, member.name);
+      if (!memberFile.exists()) {
+        File tmpFile = new File(memberFile.getPath() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmpFile.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+          getChannel().transferTo(member.offset, member.size, out);
+        }
+        Files.move(tmpFile.toPath(), memberFile.toPath(),
+            StandardCopyOption.ATOMIC_MOVE);
+        track(memberFile, true);
+      }
+    }
+  }
+
+  /**
+   * scan the headers of the tar file - the content of the members is skipped
+   *
+   * @throws IOException
+   */
+  protected void index() throws IOException {
+    try (TarArchiveInputStream tarIn = new TarArchiveInputStream(
+        new FileInputStream(tarFile))) {
+      TarArchiveEntry entry;
+      while ((entry = tarIn.getNextTarEntry()) != null) {
+        if (entry.isFile()) {
+          String name = new File(entry.getName()).getName();
+          // the content starts right after the header just read
+          members.put(name,
+              new Member(name, tarIn.getBytesRead(), entry.getSize()));
+        }
+      }
+    }
+    if (debug)
+      LOGGER.log(Level.INFO, String.format("indexed %d members of %s",
+          members.size(), tarFile.getPath()));
+  }
+
+  /**
+   * get the members of this archive
+   *
+   * @return the members in archive order
+   */
+  public List<Member> getMembers() {
+    return new ArrayList<Member>(members.values());
+  }
+
+  /**
+   * get the member with the given file name - a gzipped member is found by
+   * the name without the .gz extension as well
+   *
+   * @param name
+   * @return the member or null if there is no such member
+   */
+  public Member getMember(String name) {
+    Member member = members.get(name);
+    if (member == null)
+      member = members.get(name + ".gz");
+    return member;
+  }
+
+  /**
+   * get the member for the given product and dateTime
+   *
+   * @param product
+   *          - e.g. sf
+   * @param dateTime
+   * @return the member or null if there is no such member
+   */
+  public Member getMember(String product, LocalDateTime dateTime) {
+    String timeStamp = KnownUrl.getTimeStampForProduct(product, dateTime);
+    return getMember(KnownUrl.getFileNameForProduct(product, timeStamp));
+  }
+
+  /**
+   * get the channel of the tar file - it is reopened if the archive has been
+   * closed e.g. when it was evicted from the open archives while still in use
+   *
+   * @return - the channel
+   * @throws IOException
+   */
+  protected synchronized FileChannel getChannel() throws IOException {
+    if (channel == null || !channel.isOpen())
+      channel = FileChannel.open(tarFile.toPath(), StandardOpenOption.READ);
+    return channel;
+  }
+
+  /**
+   * read the content of the given member by seeking to it
+   *
+   * @param member
+   * @return a read only buffer with the content
+   * @throws IOException
+   */
+  public synchronized ByteBuffer read(Member member) throws IOException {
+    return getChannel().map(MapMode.READ_ONLY, member.offset, member.size);
+  }
+
+  /**
+   * get the composite for the given member
+   *
+   * @param member
+   * @return the composite
+   * @throws Throwable
+   */
+  public Composite getComposite(Member member) throws Throwable {
+    File memberFile = new File(memberDir, member.name);
+    if (memberFile.exists()) {
+      track(memberFile, false);
+      return Composite.fromPath(memberFile.toPath());
+    }
+    ByteBuffer content = read(member);
+    if (member.size >= 2 && CachedUrl.isGzip(content.get(0), content.get(1))) {
+      // only the member is decompressed
+      byte[] zipped = new byte[(int) member.size];
+      content.get(zipped);
+      try (InputStream inputStream = new ByteArrayInputStream(zipped)) {
+        return Composite.fromStream(inputStream);
+      }
+    }
+    return Composite.fromByteBuffer(content, false);
+  }
+
+  /**
+   * get the composite for the given product and dateTime
+   *
+   * @param product
+   * @param dateTime
+   * @return the composite
+   * @throws Throwable
+   *           - if there is no member for the given product and dateTime
+   */
+  public Composite getComposite(String product, LocalDateTime dateTime)
+      throws Throwable {
+    Member member = getMember(product, dateTime);
+    if (member == null)
+      throw new Exception(String.format("no %s composite for %s in %s",
+          product, dateTime, tarFile.getName()));
+    return getComposite(member);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (channel != null)
+      channel.close();
+  }
+
+  /**
+   * check whether the given url points to a tar archive
+   *
+   * @param url
+   * @return true if the url is a (gzipped) tar archive
+   */
+  public static boolean isArchive(String url) {
+    return url.endsWith(".tar") || url.endsWith(".tar.gz");
+  }
+
+  /**
+   * get the plain tar file for the given archive file - a gzipped archive is
+   * decompressed once next to it
+   *
+   * @param archiveFile
+   * @return the tar file
+   * @throws IOException
+   */
+  public static File getTarFile(File archiveFile) throws IOException {
+    String name = archiveFile.getName();
+    if (!name.endsWith(".gz"))
+      return archiveFile;
+    File tarFile = new File(archiveFile.getParentFile(),
+        name.substring(0, name.length() - 3));
+    if (!tarFile.exists()) {
+      if (debug)
+        LOGGER.log(Level.INFO, String.format("decompressing %s to %s",
+            archiveFile.getPath(), tarFile.getPath()));
+      File tmpFile = new File(tarFile.getPath() + ".tmp");
+      try (InputStream inputStream = new GZIPInputStream(
+          new BufferedInputStream(new FileInputStream(archiveFile)))) {
+        Files.copy(inputStream, tmpFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+      }
+      Files.move(tmpFile.toPath(), tarFile.toPath(),
+          StandardCopyOption.ATOMIC_MOVE);
+      track(tarFile, true);
+    }
+    return tarFile;
+  }
+
+  /**
+   * get the - shared - archive for the given archive file
+   *
+   * @param archiveFile
+   * @return the archive
+   * @throws IOException
+   */
+  public static synchronized CompositeArchive getArchive(File archiveFile)
+      throws IOException {
+    File tarFile = getTarFile(archiveFile);
+    if (tarFile != archiveFile)
+      track(tarFile, false);
+    CompositeArchive archive = archives.get(tarFile);
+    if (archive == null) {
+      // the index is kept next to the cached archive
+      archive = new CompositeArchive(tarFile,
+          new File(archiveFile.getPath() + INDEX_EXTENSION));
+      if (splitMembers)
+        archive.split();
+      archives.put(tarFile, archive);
+      // close the least recently used archives
+      Iterator<CompositeArchive> iterator = archives.values().iterator();
+      while (archives.size() > Math.max(1, maxOpenArchives)) {
+        CompositeArchive eldest = iterator.next();
+        iterator.remove();
+        eldest.close();
+      }
+    }
+    return archive;
+  }
+
+  /**
+   * close all open archives
+   *
+   * @throws IOException
+   */
+  public static synchronized void closeArchives() throws IOException {
+    for (CompositeArchive archive : archives.values())
+      archive.close();
+    archives.clear();
+  }
+
+  /**
+   * get the archive for the given url - the url content is cached first
+   *
+   * @param url
+   * @return the archive
+   * @throws Exception
+   */
+  public static CompositeArchive getArchive(String url) throws Exception {
+    String cachedUrl = CachedUrl.checkCache(url, Composite.useCache);
+    URL fileUrl = new URL(cachedUrl);
+    if (!"file".equals(fileUrl.getProtocol()))
+      throw new Exception("archive " + url + " is not available locally");
+    return getArchive(new File(fileUrl.toURI()));
+  }
+}
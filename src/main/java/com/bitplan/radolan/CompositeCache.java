@@ -0,0 +1,301 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package com.bitplan.radolan;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bitplan.util.CachedUrl;
+import com.bitplan.util.LatestCache;
+
+import cs.fau.de.since.radolan.Composite;
+
+/**
+ * process wide cache of decoded composites - the entries are weighted by the
+ * byte size of their grid and raw content and the least recently used ones
+ * are evicted when the maximum weight is exceeded - concurrent requests for a
+ * missing composite share a single load
+ *
+ * the cached composites are shared and must not be modified by the callers
+ *
+ * @author wf
+ *
+ */
+public class CompositeCache {
+  // prepare a LOGGER
+  protected static Logger LOGGER = Logger.getLogger("com.bitplan.radolan");
+  public static boolean debug = false;
+  // maximum weight in bytes of the shared instance
+  public static long maxWeight = 256 * 1024 * 1024;
+
+  /**
+   * loads a composite that is not in the cache
+   */
+  public interface Loader {
+    public Composite load() throws Throwable;
+  }
+
+  private final long capacity;
+  private final LinkedHashMap<String, Composite> composites = new LinkedHashMap<String, Composite>(
+      16, 0.75f, true);
+  private final ConcurrentHashMap<String, CompletableFuture<Composite>> loading = new ConcurrentHashMap<String, CompletableFuture<Composite>>();
+  // the current key of each latest url
+  private final ConcurrentHashMap<String, String> latestKeys = new ConcurrentHashMap<String, String>();
+  private long weight;
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger loads = new AtomicInteger();
+
+  /**
+   * create a cache with the given maximum weight
+   *
+   * @param capacity
+   *          - the maximum weight in bytes
+   */
+  public CompositeCache(long capacity) {
+    this.capacity = capacity;
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  public synchronized long getWeight() {
+    return weight;
+  }
+
+  public synchronized int size() {
+    return composites.size();
+  }
+
+  /**
+   * @return the number of requests that were answered from the cache
+   */
+  public int getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of composites that have been loaded
+   */
+  public int getLoads() {
+    return loads.get();
+  }
+
+  /**
+   * get the weight of the given composite
+   *
+   * @param composite
+   * @return - the byte size of its grid and of the raw content it keeps on
+   *         the heap - memory mapped content is not counted
+   */
+  public static long weigh(Composite composite) {
+    long weight = (long) composite.getPx() * composite.getPy() * Float.BYTES;
+    byte[] bytes = composite.bytes;
+    if (bytes != null)
+      weight += bytes.length;
+    ByteBuffer buffer = composite.buffer;
+    if (buffer != null && buffer.hasArray() && buffer.array() != bytes)
+      weight += buffer.array().length;
+    return weight;
+  }
+
+  /**
+   * get the key for the given product and timestamp
+   *
+   * @param product
+   * @param dateTime
+   * @return - the key
+   */
+  public static String getKey(String product, LocalDateTime dateTime) {
+    return product + "@" + dateTime;
+  }
+
+  /**
+   * get the cached composite for the given key
+   *
+   * @param key
+   * @return the composite or null if it is not cached
+   */
+  public synchronized Composite getIfPresent(String key) {
+    return composites.get(key);
+  }
+
+  /**
+   * get the composite for the given key - load it with the given loader if it
+   * is not in the cache
+   *
+   * @param key
+   * @param loader
+   * @return - the composite
+   * @throws Throwable
+   *           - if the load failed
+   */
+  public Composite get(String key, Loader loader) throws Throwable {
+    Composite composite = getIfPresent(key);
+    if (composite != null) {
+      hits.incrementAndGet();
+      return composite;
+    }
+    CompletableFuture<Composite> future = new CompletableFuture<Composite>();
+    CompletableFuture<Composite> running = loading.putIfAbsent(key, future);
+    if (running != null) {
+      // somebody else is already loading this composite
+      try {
+        return running.get();
+      } catch (ExecutionException ee) {
+        throw ee.getCause();
+      }
+    }
+    try {
+      // the load might have finished while we were registering
+      composite = getIfPresent(key);
+      if (composite == null) {
+        loads.incrementAndGet();
+        composite = loader.load();
+        put(key, composite);
+      }
+      future.complete(composite);
+      return composite;
+    } catch (Throwable th) {
+      future.completeExceptionally(th);
+      throw th;
+    } finally {
+      loading.remove(key, future);
+    }
+  }
+
+  /**
+   * get the composite for the given url - the composite of a latest url is
+   * kept until the revalidation of the cached file brings a new version
+   *
+   * @param url
+   * @return - the composite
+   * @throws Throwable
+   */
+  public Composite getComposite(String url) throws Throwable {
+    if (!url.contains("-latest-"))
+      return get(url, () -> new Composite(url));
+    String cachedUrl = CachedUrl.checkCache(url, Composite.useCache);
+    String version = null;
+    if (cachedUrl.startsWith("file:"))
+      version = LatestCache.getInstance()
+          .getVersion(new File(new URL(cachedUrl).toURI()));
+    if (version == null)
+      return new Composite(url);
+    String key = url + "@" + version;
+    String previousKey = latestKeys.put(url, key);
+    if (previousKey != null && !previousKey.equals(key))
+      remove(previousKey);
+    return get(key, () -> new Composite(url));
+  }
+
+  /**
+   * get the composite of the given product at the given time - members of
+   * monthly archives are read from the archive
+   *
+   * @param product
+   * @param dateTime
+   * @return - the composite
+   * @throws Throwable
+   */
+  public Composite getComposite(String product, LocalDateTime dateTime)
+      throws Throwable {
+    return get(getKey(product, dateTime), () -> {
+      String url = KnownUrl.getUrlForProduct(product, dateTime);
+      if (CompositeArchive.isArchive(url))
+        return CompositeArchive.getArchive(url).getComposite(product,
+            dateTime);
+      return new Composite(url);
+    });
+  }
+
+  /**
+   * put the given composite into the cache and evict the least recently used
+   * composites if the maximum weight is exceeded
+   *
+   * @param key
+   * @param composite
+   */
+  public synchronized void put(String key, Composite composite) {
+    Composite previous = composites.put(key, composite);
+    if (previous != null)
+      weight -= weigh(previous);
+    weight += weigh(composite);
+    Iterator<Map.Entry<String, Composite>> iterator = composites.entrySet()
+        .iterator();
+    // keep at least the composite just added
+    while (weight > capacity && composites.size() > 1) {
+      Map.Entry<String, Composite> eldest = iterator.next();
+      if (eldest.getKey().equals(key))
+        continue;
+      weight -= weigh(eldest.getValue());
+      iterator.remove();
+      if (debug)
+        LOGGER.log(Level.INFO, "evicted composite " + eldest.getKey());
+    }
+  }
+
+  /**
+   * remove the composite with the given key
+   *
+   * @param key
+   */
+  public synchronized void remove(String key) {
+    Composite composite = composites.remove(key);
+    if (composite != null)
+      weight -= weigh(composite);
+  }
+
+  /**
+   * remove all composites
+   */
+  public synchronized void clear() {
+    composites.clear();
+    weight = 0;
+  }
+
+  private static CompositeCache instance;
+
+  /**
+   * get the shared cache
+   *
+   * @return - the instance
+   */
+  public static synchronized CompositeCache getInstance() {
+    if (instance == null)
+      instance = new CompositeCache(maxWeight);
+    return instance;
+  }
+}
@@ -23,15 +23,30 @@
  */
 package com.bitplan.radolan;
 
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.Period;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.bitplan.dateutils.DateUtils;
 import com.bitplan.geo.DPoint;
+import com.bitplan.util.CacheIndex;
+import com.bitplan.util.CachedUrl;
+import com.bitplan.util.DownloadCoordinator;
 
 import cs.fau.de.since.radolan.Composite;
 
@@ -42,9 +57,11 @@ import cs.fau.de.since.radolan.Composite;
  *
  */
 public class CompositeManager {
-  Map<LocalDate, Composite> historyMap = new HashMap<LocalDate, Composite>();
+  // prepare a LOGGER
+  protected static Logger LOGGER = Logger.getLogger("com.bitplan.radolan");
+  public static boolean debug = false;
+
 
-  
   /**
    * get a history rainSum for the number of days ago at the given coordinate
    * @param daysAgo
@@ -55,7 +72,12 @@ public class CompositeManager {
   public float getRainSum(int daysAgo,DPoint coord) throws Throwable {
     LocalDate today = DateUtils.asLocalDate(new Date());
     LocalDate day=today.minus(Period.ofDays(daysAgo));
-    Composite comp=getRainSum(day);
+    LocalDateTime dateTime = day.atStartOfDay().plusMinutes(23*60+50);
+    Composite comp = CompositeCache.getInstance()
+        .getIfPresent(CompositeCache.getKey("sf", dateTime));
+    // only read the value at the coordinate if the grid is not decoded yet
+    if (comp == null)
+      return new PointSeries("sf", coord).getValue(dateTime);
     float rain=comp.getValueAtCoord(coord);
     return rain;
   }
@@ -66,15 +88,198 @@ public class CompositeManager {
    * @throws Throwable
    */
   public Composite getRainSum(LocalDate day) throws Throwable {
-    Composite comp = historyMap.get(day);
-    if (comp == null) {
-      LocalDateTime dateTime = day.atStartOfDay().plusMinutes(23*60+50);
-      String url = KnownUrl.getUrlForProduct("sf", dateTime);
-      comp = new Composite(url);
-    }
+    LocalDateTime dateTime = day.atStartOfDay().plusMinutes(23*60+50);
+    // older days are members of a monthly archive
+    Composite comp = CompositeCache.getInstance().getComposite("sf",
+        dateTime);
     return comp;
   }
 
+  /**
+   * get the sum of the given product over the given window ending at the
+   * given time
+   * 
+   * @param product
+   *          - rw or ry - the overlapping 24h sums of sf can not be added up
+   * @param end
+   * @param window
+   *          - e.g. 24 hours
+   * @return - the sum
+   * @throws Throwable
+   */
+  public RadarImage getRainSum(String product, LocalDateTime end,
+      Duration window) throws Throwable {
+    RollingAccumulator accumulator = new RollingAccumulator(product, window);
+    LocalDateTime from = end.minus(window).plusMinutes(1);
+    for (LocalDateTime dateTime : KnownUrl.getDateTimesForProduct(product,
+        from, end)) {
+      accumulator.add(dateTime,
+          CompositeCache.getInstance().getComposite(product, dateTime));
+    }
+    return accumulator.getSum(window);
+  }
+
+  /**
+   * create or extend the daily rain sum cube in the given file with the sf
+   * composites of the given days - the update stops at the first day that is
+   * not available so that a failed download does not leave a permanent gap -
+   * the next update resumes with this day
+   * 
+   * @param file
+   * @param from
+   * @param to
+   * @return - the cube - null if there is no cube yet and the first day is not
+   *         available
+   * @throws Throwable
+   */
+  public RainSumCube updateRainSumCube(File file, LocalDate from, LocalDate to)
+      throws Throwable {
+    RainSumCube cube = null;
+    try {
+      if (file.exists()) {
+        cube = RainSumCube.open(file, false);
+        ZonedDateTime end = cube.getEnd();
+        if (end != null)
+          from = end.toLocalDate().plusDays(1);
+      }
+      for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+        Composite comp;
+        try {
+          comp = getRainSum(day);
+        } catch (Throwable th) {
+          if (debug)
+            LOGGER.log(Level.WARNING, "no rain sum for " + day, th);
+          break;
+        }
+        ZonedDateTime captureTime = day.atStartOfDay(ZoneOffset.UTC)
+            .plusMinutes(23 * 60 + 50);
+        if (cube == null)
+          cube = RainSumCube.create(file, "sf", comp.getGridWidth(),
+              comp.getGridHeight(), captureTime, Duration.ofDays(1),
+              comp.getDataUnit());
+        cube.append(comp, captureTime);
+      }
+    } catch (Throwable th) {
+      if (cube != null)
+        cube.close();
+      throw th;
+    }
+    return cube;
+  }
+
+  /**
+   * listener for the progress of a prefetch
+   */
+  public interface PrefetchListener {
+    /**
+     * called when the given url is available in the cache or failed
+     * 
+     * @param url
+     * @param done
+     *          - the number of urls handled so far
+     * @param total
+     *          - the number of urls to handle
+     * @param error
+     *          - null if the url is available
+     */
+    public void onProgress(String url, int done, int total, Throwable error);
+  }
+
+  /**
+   * get the distinct urls of the given product in the given range - older
+   * days of the sf product share the url of their monthly archive
+   * 
+   * @param product
+   * @param from
+   * @param to
+   * @return the urls
+   */
+  public List<String> getUrls(String product, LocalDateTime from,
+      LocalDateTime to) {
+    Set<String> urls = new LinkedHashSet<String>();
+    for (LocalDateTime dateTime : KnownUrl.getDateTimesForProduct(product,
+        from, to)) {
+      urls.add(KnownUrl.getUrlForProduct(product, dateTime));
+    }
+    return new ArrayList<String>(urls);
+  }
+
+  /**
+   * make sure all files of the given product in the given range are in the
+   * cache so that later reads are local
+   * 
+   * @param product
+   *          - sf, rw or ry
+   * @param from
+   * @param to
+   * @return - the number of urls available in the cache
+   */
+  public int prefetch(String product, LocalDateTime from, LocalDateTime to) {
+    return prefetch(product, from, to, null);
+  }
+
+  /**
+   * make sure all files of the given product in the given range are in the
+   * cache - missing files are downloaded from the configured mirror or the
+   * original url by the worker pool of the DownloadCoordinator
+   * 
+   * @param product
+   *          - sf, rw or ry
+   * @param from
+   * @param to
+   * @param listener
+   *          - the listener to report the progress to - may be null
+   * @return - the number of urls available in the cache
+   */
+  public int prefetch(String product, LocalDateTime from, LocalDateTime to,
+      PrefetchListener listener) {
+    List<String> urls = getUrls(product, from, to);
+    int total = urls.size();
+    AtomicInteger done = new AtomicInteger();
+    AtomicInteger available = new AtomicInteger();
+    List<CompletableFuture<File>> futures = new ArrayList<CompletableFuture<File>>();
+    DownloadCoordinator coordinator = DownloadCoordinator.getInstance();
+    for (String url : urls) {
+      File cacheFile = CachedUrl.cacheForUrl(url);
+      CompletableFuture<File> future;
+      if (cacheFile == null) {
+        future = new CompletableFuture<File>();
+        future.completeExceptionally(
+            new Exception("url " + url + " can not be cached"));
+      } else if (cacheFile.exists()) {
+        future = CompletableFuture.completedFuture(cacheFile);
+      } else {
+        // track the new file and keep the cache within its budget
+        future = coordinator
+            .downloadAsync(KnownUrl.getMirroredUrl(url), cacheFile)
+            .thenApply(file -> {
+              try {
+                CacheIndex.getInstance(CachedUrl.getCacheRoot()).added(file);
+              } catch (IOException e) {
+                throw new CompletionException(e);
+              }
+              return file;
+            });
+      }
+      futures.add(future.whenComplete((file, error) -> {
+        if (error == null)
+          available.incrementAndGet();
+        else if (debug)
+          LOGGER.log(Level.WARNING, "prefetch of " + url + " failed", error);
+        if (listener != null)
+          listener.onProgress(url, done.incrementAndGet(), total, error);
+      }));
+    }
+    for (CompletableFuture<File> future : futures) {
+      try {
+        future.join();
+      } catch (Exception e) {
+        // already reported
+      }
+    }
+    return available.get();
+  }
+
   private static CompositeManager instance;
 
   /**
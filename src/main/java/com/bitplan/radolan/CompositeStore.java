@@ -0,0 +1,484 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package com.bitplan.radolan;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import cs.fau.de.since.radolan.Catalog.Unit;
+import cs.fau.de.since.radolan.Composite;
+
+/**
+ * store of decoded composites of a product in a memory mapped file - each
+ * capture time has a fixed slot at start + index * step so that opening the
+ * store and accessing a grid does not need any index or parsing
+ * 
+ * file layout (little endian): header of HEADER_SIZE bytes followed by the
+ * slots each consisting of the capture time in epoch seconds (0 for an empty
+ * slot), padding and width x height float values
+ * 
+ * @author wf
+ *
+ */
+public class CompositeStore implements Closeable {
+  // prepare a LOGGER
+  protected static Logger LOGGER = Logger.getLogger("com.bitplan.radolan");
+  public static boolean debug = false;
+
+  public static final int MAGIC = 0x52444C53; // RDLS
+  public static final int VERSION = 1;
+  public static final int HEADER_SIZE = 4096;
+  public static final int SLOT_HEADER_SIZE = 16;
+  public static final int PRODUCT_SIZE = 8;
+
+  // cached file names e.g. raa01-sf_10000-1805301650-dwd---bin.gz
+  public static final Pattern CACHE_FILE_PATTERN = Pattern
+      .compile("raa01-([a-z0-9]{2})_10000-([0-9]{10})-dwd---bin(\\.gz)?");
+
+  private File file;
+  private RandomAccessFile randomAccessFile;
+  private FileChannel channel;
+  private boolean readOnly;
+
+  private String product;
+  private int width;
+  private int height;
+  private ZonedDateTime start;
+  private Duration step;
+  private Duration interval;
+  private Unit dataUnit;
+  private long slotSize;
+
+  public File getFile() {
+    return file;
+  }
+
+  public String getProduct() {
+    return product;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public ZonedDateTime getStart() {
+    return start;
+  }
+
+  public Duration getStep() {
+    return step;
+  }
+
+  public Duration getInterval() {
+    return interval;
+  }
+
+  public Unit getDataUnit() {
+    return dataUnit;
+  }
+
+  public long getSlotSize() {
+    return slotSize;
+  }
+
+  /**
+   * construct me
+   */
+  private CompositeStore(File file, boolean readOnly) throws IOException {
+    this.file = file;
+    this.readOnly = readOnly;
+    randomAccessFile = new RandomAccessFile(file, readOnly ? "r" : "rw");
+    channel = randomAccessFile.getChannel();
+  }
+
+  /**
+   * create a new store - an existing file will be overwritten
+   * 
+   * @param file
+   * @param product
+   *          - e.g. sf
+   * @param width
+   * @param height
+   * @param start
+   *          - the capture time of the first slot
+   * @param step
+   *          - the time between two slots
+   * @param interval
+   *          - the interval of the composites
+   * @param dataUnit
+   * @return - the store
+   * @throws IOException
+   */
+  public static CompositeStore create(File file, String product, int width,
+      int height, ZonedDateTime start, Duration step, Duration interval,
+      Unit dataUnit) throws IOException {
+    if (file.exists())
+      Files.delete(file.toPath());
+    CompositeStore store = new CompositeStore(file, false);
+    store.product = product.toLowerCase();
+    store.width = width;
+    store.height = height;
+    store.start = start.withZoneSameInstant(ZoneId.of("Z"));
+    store.step = step;
+    store.interval = interval;
+    store.dataUnit = dataUnit;
+    store.slotSize = SLOT_HEADER_SIZE + 4L * width * height;
+    store.writeHeader();
+    return store;
+  }
+
+  /**
+   * open an existing store
+   * 
+   * @param file
+   * @param readOnly
+   * @return - the store
+   * @throws IOException
+   */
+  public static CompositeStore open(File file, boolean readOnly)
+      throws IOException {
+    CompositeStore store = new CompositeStore(file, readOnly);
+    store.readHeader();
+    return store;
+  }
+
+  /**
+   * write the header
+   * 
+   * @throws IOException
+   */
+  protected void writeHeader() throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(MAGIC);
+    header.putInt(VERSION);
+    byte[] productBytes = new byte[PRODUCT_SIZE];
+    byte[] name = product.getBytes(StandardCharsets.US_ASCII);
+    System.arraycopy(name, 0, productBytes, 0,
+        Math.min(name.length, PRODUCT_SIZE));
+    header.put(productBytes);
+    header.putInt(width);
+    header.putInt(height);
+    header.putLong(start.toEpochSecond());
+    header.putLong(step.getSeconds());
+    header.putLong(interval.getSeconds());
+    header.putInt(dataUnit.ordinal());
+    header.rewind();
+    channel.write(header, 0);
+  }
+
+  /**
+   * read the header
+   * 
+   * @throws IOException
+   */
+  protected void readHeader() throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    channel.read(header, 0);
+    header.flip();
+    if (header.limit() < HEADER_SIZE || header.getInt() != MAGIC)
+      throw new IOException(file.getPath() + " is not a composite store");
+    int version = header.getInt();
+    if (version != VERSION)
+      throw new IOException(String.format("%s has version %d expected %d",
+          file.getPath(), version, VERSION));
+    byte[] productBytes = new byte[PRODUCT_SIZE];
+    header.get(productBytes);
+    product = new String(productBytes, StandardCharsets.US_ASCII).trim();
+    width = header.getInt();
+    height = header.getInt();
+    start = ZonedDateTime.ofInstant(Instant.ofEpochSecond(header.getLong()),
+        ZoneId.of("Z"));
+    step = Duration.ofSeconds(header.getLong());
+    interval = Duration.ofSeconds(header.getLong());
+    dataUnit = Unit.values()[header.getInt()];
+    slotSize = SLOT_HEADER_SIZE + 4L * width * height;
+  }
+
+  /**
+   * get the slot index for the given capture time
+   * 
+   * @param captureTime
+   * @return the index or -1 if the time is not aligned to a slot
+   */
+  public int getIndex(ZonedDateTime captureTime) {
+    long seconds = captureTime.toEpochSecond() - start.toEpochSecond();
+    if (seconds < 0 || seconds % step.getSeconds() != 0)
+      return -1;
+    return (int) (seconds / step.getSeconds());
+  }
+
+  /**
+   * get the capture time of the slot with the given index
+   * 
+   * @param index
+   * @return - the capture time
+   */
+  public ZonedDateTime getTime(int index) {
+    return start.plus(step.multipliedBy(index));
+  }
+
+  /**
+   * get the number of slots in the file
+   * 
+   * @return - the slot count
+   * @throws IOException
+   */
+  public int getSlotCount() throws IOException {
+    return (int) ((channel.size() - HEADER_SIZE) / slotSize);
+  }
+
+  /**
+   * map the slot with the given index
+   * 
+   * @param index
+   * @return - the buffer
+   * @throws IOException
+   */
+  protected MappedByteBuffer mapSlot(int index) throws IOException {
+    long offset = HEADER_SIZE + index * slotSize;
+    MapMode mode = readOnly ? MapMode.READ_ONLY : MapMode.READ_WRITE;
+    MappedByteBuffer slot = channel.map(mode, offset, slotSize);
+    slot.order(ByteOrder.LITTLE_ENDIAN);
+    return slot;
+  }
+
+  /**
+   * put the given composite into its slot
+   * 
+   * @param composite
+   * @throws IOException
+   */
+  public void put(Composite composite) throws IOException {
+    put(composite, composite.getCaptureTime());
+  }
+
+  /**
+   * put the given image into the slot for the given capture time
+   * 
+   * @param image
+   * @param captureTime
+   * @throws IOException
+   */
+  public void put(RadarImage image, ZonedDateTime captureTime)
+      throws IOException {
+    if (readOnly)
+      throw new IOException("store " + file.getPath() + " is read only");
+    if (image.getGridWidth() != width || image.getGridHeight() != height)
+      throw new IOException(String.format(
+          "grid size %d x %d does not match store grid size %d x %d",
+          image.getGridWidth(), image.getGridHeight(), width, height));
+    int index = getIndex(captureTime);
+    if (index < 0)
+      throw new IOException(String.format(
+          "capture time %s is not aligned to start %s with step %s",
+          captureTime, start, step));
+    MappedByteBuffer slot = mapSlot(index);
+    slot.putLong(0, captureTime.toEpochSecond());
+    slot.position(SLOT_HEADER_SIZE);
+    FloatBuffer values = slot.asFloatBuffer();
+    float[] row = new float[width];
+    for (int y = 0; y < height; y++) {
+      values.put(image.getRow(y, row), 0, width);
+    }
+  }
+
+  /**
+   * get the image for the given capture time
+   * 
+   * @param captureTime
+   * @return - the image or null if there is none
+   * @throws IOException
+   */
+  public MappedRadarImage get(ZonedDateTime captureTime) throws IOException {
+    int index = getIndex(captureTime);
+    if (index < 0)
+      return null;
+    return get(index);
+  }
+
+  /**
+   * get the image in the slot with the given index
+   * 
+   * @param index
+   * @return - the image or null if the slot is empty
+   * @throws IOException
+   */
+  public MappedRadarImage get(int index) throws IOException {
+    if (index < 0 || index >= getSlotCount())
+      return null;
+    MappedByteBuffer slot = mapSlot(index);
+    long epochSecond = slot.getLong(0);
+    if (epochSecond == 0)
+      return null;
+    slot.position(SLOT_HEADER_SIZE);
+    ZonedDateTime captureTime = ZonedDateTime
+        .ofInstant(Instant.ofEpochSecond(epochSecond), ZoneId.of("Z"));
+    return new MappedRadarImage(slot.asFloatBuffer(), width, height,
+        dataUnit, interval, captureTime);
+  }
+
+  /**
+   * read a single value of the slot with the given index without mapping the
+   * slot
+   * 
+   * @param index
+   * @param x
+   * @param y
+   * @return - the value - NaN if the position is outside of the grid or the
+   *         slot does not exist
+   * @throws IOException
+   */
+  public float getValue(int index, int x, int y) throws IOException {
+    if (index < 0 || index >= getSlotCount() || x < 0 || x >= width || y < 0
+        || y >= height)
+      return Float.NaN;
+    long offset = HEADER_SIZE + index * slotSize + SLOT_HEADER_SIZE
+        + 4L * (y * width + x);
+    ByteBuffer value = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    channel.read(value, offset);
+    return value.getFloat(0);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+    randomAccessFile.close();
+  }
+
+  /**
+   * get the default step between two stored composites of the given product
+   * 
+   * @param product
+   * @return - the step
+   */
+  public static Duration getDefaultStep(String product) {
+    switch (product.toLowerCase()) {
+    case "sf":
+      return Duration.ofDays(1);
+    case "ry":
+      return Duration.ofMinutes(5);
+    default:
+      return Duration.ofHours(1);
+    }
+  }
+
+  /**
+   * rebuild the store for the given product from the composites in the given
+   * cache directory - cache files that can not be read or do not fit the
+   * store are skipped
+   * 
+   * @param cacheRoot
+   *          - e.g. $HOME/.radolan
+   * @param product
+   *          - e.g. sf
+   * @param storeFile
+   *          - the file of the store to (re)create
+   * @return - the number of composites actually stored
+   * @throws Throwable
+   */
+  public static int rebuild(File cacheRoot, String product, File storeFile)
+      throws Throwable {
+    Duration step = getDefaultStep(product);
+    // sort the cached files by time stamp
+    TreeMap<String, File> files = new TreeMap<String, File>();
+    try (Stream<java.nio.file.Path> paths = Files.walk(cacheRoot.toPath())) {
+      List<File> candidates = paths.map(path -> path.toFile())
+          .filter(f -> f.isFile()).collect(Collectors.toList());
+      for (File candidate : candidates) {
+        Matcher matcher = CACHE_FILE_PATTERN.matcher(candidate.getName());
+        if (matcher.matches()
+            && matcher.group(1).equalsIgnoreCase(product)) {
+          files.put(matcher.group(2), candidate);
+        }
+      }
+    }
+    CompositeStore store = null;
+    int count = 0;
+    try {
+      for (File cacheFile : files.values()) {
+        Composite composite;
+        try {
+          composite = new Composite(cacheFile.toURI().toURL().toExternalForm());
+        } catch (Throwable th) {
+          LOGGER.log(Level.WARNING, String.format("skipping unreadable %s: %s",
+              cacheFile, th.getMessage()));
+          continue;
+        }
+        if (store == null) {
+          store = create(storeFile, product, composite.getGridWidth(),
+              composite.getGridHeight(), composite.getCaptureTime(), step,
+              composite.getInterval(), composite.getDataUnit());
+        }
+        if (store.getIndex(composite.getCaptureTime()) < 0) {
+          if (debug)
+            LOGGER.log(Level.INFO, String.format(
+                "skipping %s - not aligned to step %s", cacheFile, step));
+          continue;
+        }
+        try {
+          store.put(composite);
+          count++;
+        } catch (IOException e) {
+          LOGGER.log(Level.WARNING,
+              String.format("skipping %s: %s", cacheFile, e.getMessage()));
+        }
+      }
+    } finally {
+      if (store != null)
+        store.close();
+    }
+    if (debug)
+      LOGGER.log(Level.INFO, String.format("imported %d %s composites to %s",
+          count, product, storeFile.getPath()));
+    return count;
+  }
+}
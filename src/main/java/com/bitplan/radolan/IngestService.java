@@ -0,0 +1,340 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package com.bitplan.radolan;
+
+import java.io.Closeable;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import cs.fau.de.since.radolan.Composite;
+
+/**
+ * long running service that fetches the composites of the given products
+ * shortly after the DWD publishes them - each composite is decoded once,
+ * put into the CompositeCache and pushed to the listeners - failed fetches
+ * are retried with an exponential backoff and missed intervals are caught up
+ *
+ * @author wf
+ *
+ */
+public class IngestService implements Closeable {
+  // prepare a LOGGER
+  protected static Logger LOGGER = Logger.getLogger("com.bitplan.radolan");
+  public static boolean debug = false;
+  // time after the nominal time of a composite until it is expected to be
+  // published
+  public static Duration publicationDelay = Duration.ofMinutes(5);
+  // first retry delay after a failed fetch - doubled for each further failure
+  public static Duration retryDelay = Duration.ofSeconds(30);
+  // how far back missed intervals are fetched
+  public static Duration catchUp = Duration.ofHours(3);
+  // number of publication steps a missing composite may hold back the newer
+  // composites - older gaps are skipped and retried as late arrivals
+  public static int maxStall = 3;
+
+  /**
+   * listener for ingested composites
+   */
+  public interface IngestListener {
+    /**
+     * called when a new composite has been ingested
+     *
+     * @param product
+     * @param dateTime
+     * @param composite
+     */
+    public void onComposite(String product, LocalDateTime dateTime,
+        Composite composite);
+  }
+
+  /**
+   * thrown when listeners failed to process an ingested composite - the
+   * composite is not pushed again
+   */
+  public static class ListenerException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ListenerException(String message, Throwable cause) {
+      super(message, cause);
+    }
+  }
+
+  /**
+   * the ingest state of a product
+   */
+  static class Feed {
+    String product;
+    // the times ingested within the catch up window
+    TreeSet<LocalDateTime> ingested = new TreeSet<LocalDateTime>();
+    int failures;
+  }
+
+  private final Map<String, Feed> feeds = new LinkedHashMap<String, Feed>();
+  private final List<IngestListener> listeners = new CopyOnWriteArrayList<IngestListener>();
+  private CompositeCache compositeCache = CompositeCache.getInstance();
+  // the DWD file names use UTC
+  private Clock clock = Clock.systemUTC();
+  private ScheduledExecutorService scheduler;
+  private final CountDownLatch closed = new CountDownLatch(1);
+
+  /**
+   * create a service for the given products
+   *
+   * @param products
+   *          - e.g. ry, rw or an alias like hourly
+   * @throws IllegalArgumentException
+   *           - if a product is unknown
+   */
+  public IngestService(String... products) {
+    for (String product : products) {
+      Feed feed = new Feed();
+      feed.product = KnownUrl.getProduct(product.trim());
+      feeds.put(feed.product, feed);
+    }
+  }
+
+  /**
+   * get the feed of the given product
+   *
+   * @param product
+   * @return - the feed
+   * @throws IllegalArgumentException
+   *           - if the product is not ingested by this service
+   */
+  private Feed getFeed(String product) {
+    Feed feed = feeds.get(KnownUrl.getProduct(product));
+    if (feed == null)
+      throw new IllegalArgumentException(
+          "product " + product + " is not ingested");
+    return feed;
+  }
+
+  public void addListener(IngestListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(IngestListener listener) {
+    listeners.remove(listener);
+  }
+
+  public void setClock(Clock clock) {
+    this.clock = clock;
+  }
+
+  public void setCompositeCache(CompositeCache compositeCache) {
+    this.compositeCache = compositeCache;
+  }
+
+  /**
+   * get the time of the last ingested composite of the given product
+   *
+   * @param product
+   * @return - the time or null if nothing has been ingested yet
+   */
+  public LocalDateTime getLastIngested(String product) {
+    Feed feed = getFeed(product);
+    synchronized (feed) {
+      return feed.ingested.isEmpty() ? null : feed.ingested.last();
+    }
+  }
+
+  /**
+   * get the time of the latest composite of the given product that should
+   * be published by now
+   *
+   * @param product
+   * @return - the time
+   */
+  public LocalDateTime getExpected(String product) {
+    LocalDateTime now = LocalDateTime.now(clock);
+    return KnownUrl.alignToProduct(getFeed(product).product,
+        now.minus(publicationDelay));
+  }
+
+  /**
+   * fetch the composites of the given product within the catch up window
+   * that have not been ingested yet - the fetch stops at the first missing
+   * composite so that the composites are pushed in time order - a composite
+   * that is still missing after maxStall publication steps no longer holds
+   * back the newer ones and is pushed late if it shows up before it drops out
+   * of the catch up window
+   *
+   * @param product
+   * @return - the delay until the next poll
+   * @throws ListenerException
+   *           - if a listener failed - the polling stops at the composite
+   */
+  public Duration poll(String product) {
+    Feed feed = getFeed(product);
+    product = feed.product;
+    synchronized (feed) {
+      Duration step = KnownUrl.getProductStep(product);
+      LocalDateTime expected = getExpected(product);
+      LocalDateTime from = expected.minus(catchUp);
+      // forget what is out of the catch up window
+      feed.ingested.headSet(from).clear();
+      // missing composites up to this time are skipped
+      LocalDateTime stale = expected.minus(step.multipliedBy(maxStall));
+      boolean failed = false;
+      for (LocalDateTime dateTime : KnownUrl.getDateTimesForProduct(product,
+          from, expected)) {
+        if (feed.ingested.contains(dateTime))
+          continue;
+        try {
+          ingest(product, dateTime);
+          feed.ingested.add(dateTime);
+        } catch (ListenerException le) {
+          // the listeners have seen the composite - do not push it again
+          feed.ingested.add(dateTime);
+          throw le;
+        } catch (Throwable th) {
+          if (debug)
+            LOGGER.log(Level.WARNING,
+                String.format("ingest of %s %s failed: %s", product, dateTime,
+                    th.getMessage()));
+          // a long missing composite is retried with the next poll
+          if (!dateTime.isAfter(stale))
+            continue;
+          // stop here so that the listeners get the composites in time order
+          failed = true;
+          break;
+        }
+      }
+      if (failed) {
+        feed.failures++;
+        // back off but try at least once per publication interval
+        long factor = 1L << Math.min(feed.failures - 1, 16);
+        Duration backoff = retryDelay.multipliedBy(factor);
+        return backoff.compareTo(step) < 0 ? backoff : step;
+      }
+      feed.failures = 0;
+      // wait for the next publication
+      LocalDateTime next = expected.plus(step).plus(publicationDelay);
+      Duration delay = Duration.between(LocalDateTime.now(clock), next);
+      return delay.isNegative() ? Duration.ZERO : delay;
+    }
+  }
+
+  /**
+   * fetch and decode the composite of the given product at the given time
+   * and push it to the listeners - all listeners are called even if one of
+   * them fails
+   *
+   * @param product
+   * @param dateTime
+   * @throws ListenerException
+   *           - if a listener failed
+   * @throws Throwable
+   *           - if the composite could not be fetched
+   */
+  protected void ingest(String product, LocalDateTime dateTime)
+      throws Throwable {
+    Composite composite = compositeCache.getComposite(product, dateTime);
+    if (debug)
+      LOGGER.log(Level.INFO,
+          String.format("ingested %s %s", product, dateTime));
+    ListenerException failure = null;
+    for (IngestListener listener : listeners) {
+      try {
+        listener.onComposite(product, dateTime, composite);
+      } catch (RuntimeException e) {
+        if (failure == null)
+          failure = new ListenerException(String.format(
+              "listener failed for %s %s", product, dateTime), e);
+        else
+          failure.addSuppressed(e);
+      }
+    }
+    if (failure != null)
+      throw failure;
+  }
+
+  /**
+   * start polling all products
+   *
+   * @return - this service
+   */
+  public synchronized IngestService start() {
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "radolan-ingest");
+      thread.setDaemon(true);
+      return thread;
+    });
+    for (String product : feeds.keySet()) {
+      schedule(product, Duration.ZERO);
+    }
+    return this;
+  }
+
+  /**
+   * schedule the next poll of the given product
+   *
+   * @param product
+   * @param delay
+   */
+  private void schedule(String product, Duration delay) {
+    scheduler.schedule(() -> {
+      // retry after the first retry delay if the poll fails unexpectedly
+      Duration next = retryDelay;
+      try {
+        next = poll(product);
+      } catch (ListenerException le) {
+        LOGGER.log(Level.SEVERE, le.getMessage(), le);
+      } catch (Throwable th) {
+        LOGGER.log(Level.WARNING, "poll of " + product + " failed", th);
+      } finally {
+        if (!scheduler.isShutdown())
+          schedule(product, next);
+      }
+    }, delay.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * wait until the service is closed
+   *
+   * @throws InterruptedException
+   */
+  public void awaitClose() throws InterruptedException {
+    closed.await();
+  }
+
+  @Override
+  public synchronized void close() {
+    if (scheduler != null)
+      scheduler.shutdownNow();
+    closed.countDown();
+  }
+}
@@ -29,7 +29,11 @@ import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.bitplan.dateutils.DateUtils;
 
@@ -55,6 +59,68 @@ public class KnownUrl {
   public static final DateFormat hourFormat = new SimpleDateFormat(
       "yyyy-MM-dd HH:mm");
 
+  // mirror base urls by known url - e.g. for test environments without
+  // access to the DWD servers
+  private static Map<String, String> mirrors = new ConcurrentHashMap<String, String>();
+
+  static {
+    // e.g. -Dradolan.mirror=http://localhost:8080
+    String mirror = System.getProperty("radolan.mirror");
+    if (mirror != null)
+      setMirror(mirror);
+  }
+
+  /**
+   * use the given base url as a mirror for all known urls - the mirror has to
+   * serve a directory tree laid out like host/path of the known urls e.g.
+   * http://localhost:8080/opendata.dwd.de/weather/radar/radolan
+   * 
+   * @param baseUrl
+   *          - the base url of the mirror or null to remove all mirrors
+   */
+  public static void setMirror(String baseUrl) {
+    mirrors.clear();
+    if (baseUrl == null)
+      return;
+    if (baseUrl.endsWith("/"))
+      baseUrl = baseUrl.substring(0, baseUrl.length() - 1);
+    for (String knownUrl : knownUrls) {
+      // strip the protocol e.g. https://
+      String path = knownUrl.substring(knownUrl.indexOf("://") + 3);
+      setMirror(knownUrl, baseUrl + "/" + path);
+    }
+  }
+
+  /**
+   * use the given mirror url for the given known url
+   * 
+   * @param knownUrl
+   * @param mirrorUrl
+   */
+  public static void setMirror(String knownUrl, String mirrorUrl) {
+    mirrors.put(knownUrl, mirrorUrl);
+  }
+
+  /**
+   * get the url to read the content of the given url from - if a mirror is
+   * configured for the known url the given url starts with the mirror url is
+   * returned
+   * 
+   * @param url
+   * @return - the url to read from
+   */
+  public static String getMirroredUrl(String url) {
+    if (!mirrors.isEmpty()) {
+      for (String knownUrl : knownUrls) {
+        String mirrorUrl = mirrors.get(knownUrl);
+        if (mirrorUrl != null && url.startsWith(knownUrl)) {
+          return mirrorUrl + url.substring(knownUrl.length());
+        }
+      }
+    }
+    return url;
+  }
+
 
   /**
    * get a TimeStamp for the given date
@@ -92,6 +158,20 @@ public class KnownUrl {
    */
   public static String getTimeStampForProduct(String product,
       LocalDateTime dateTime) {
+    String timeStamp = getTimeStamp(alignToProduct(product, dateTime));
+    return timeStamp;
+  }
+
+  /**
+   * get the latest dateTime not after the given dateTime for which the given
+   * product is available
+   * 
+   * @param product
+   * @param dateTime
+   * @return - the aligned dateTime
+   */
+  public static LocalDateTime alignToProduct(String product,
+      LocalDateTime dateTime) {
     switch (product) {
     case "sf":
     case "rw":
@@ -106,8 +186,60 @@ public class KnownUrl {
       }
       break;
     }
-    String timeStamp = getTimeStamp(dateTime);
-    return timeStamp;
+    return dateTime;
+  }
+
+  /**
+   * get the interval in which the given product is published
+   * 
+   * @param product
+   * @return - the interval
+   */
+  public static Duration getProductStep(String product) {
+    switch (product) {
+    case "ry":
+      return Duration.ofMinutes(5);
+    default:
+      return Duration.ofHours(1);
+    }
+  }
+
+  /**
+   * get the accumulation interval of the given product - the sf product is
+   * published hourly but sums up the last 24 hours
+   * 
+   * @param product
+   * @return - the interval
+   */
+  public static Duration getProductInterval(String product) {
+    switch (product) {
+    case "sf":
+      return Duration.ofHours(24);
+    default:
+      return getProductStep(product);
+    }
+  }
+
+  /**
+   * get all dateTimes of the given product in the given range
+   * 
+   * @param product
+   * @param from
+   * @param to
+   * @return - the dateTimes
+   */
+  public static List<LocalDateTime> getDateTimesForProduct(String product,
+      LocalDateTime from, LocalDateTime to) {
+    List<LocalDateTime> dateTimes = new ArrayList<LocalDateTime>();
+    Duration step = getProductStep(product);
+    LocalDateTime dateTime = alignToProduct(product,
+        from.truncatedTo(ChronoUnit.MINUTES));
+    if (dateTime.isBefore(from))
+      dateTime = dateTime.plus(step);
+    for (; !dateTime.isAfter(to); dateTime = dateTime.plus(step)) {
+      dateTimes.add(dateTime);
+    }
+    return dateTimes;
   }
 
   /**
@@ -187,16 +319,15 @@ public class KnownUrl {
   }
 
   /**
-   * get the url for the given product and time Description
+   * get the product for the given product description
    * 
    * @param productDescription
-   * @param timeDescription
-   * @return the url
-   * @throws Exception
+   *          - e.g. SF,RW,RY or alias daily,hourly,5min
+   * @return - the product e.g. sf
+   * @throws IllegalArgumentException
+   *           - if the product is unknown
    */
-  public static String getUrl(String productDescription, String timeDescription)
-      throws Exception {
-    LocalDateTime localDateTime=null;
+  public static String getProduct(String productDescription) {
     String product = productDescription.toLowerCase();
     switch (product) {
     case "daily":
@@ -215,11 +346,25 @@ public class KnownUrl {
     case "sf":
     case "rw":
     case "ry":
-      break;
+      return product;
     default:
-      throw new Exception(String.format("productDescription %s (%s),is unknown",
-          productDescription, product));
+      throw new IllegalArgumentException(String.format(
+          "productDescription %s (%s),is unknown", productDescription, product));
     }
+  }
+
+  /**
+   * get the url for the given product and time Description
+   * 
+   * @param productDescription
+   * @param timeDescription
+   * @return the url
+   * @throws Exception
+   */
+  public static String getUrl(String productDescription, String timeDescription)
+      throws Exception {
+    LocalDateTime localDateTime=null;
+    String product = getProduct(productDescription);
     String timeStamp = timeDescription;
     switch (timeDescription) {
     case "latest":
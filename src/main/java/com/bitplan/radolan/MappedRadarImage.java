@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package com.bitplan.radolan;
+
+import java.nio.FloatBuffer;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+
+import com.bitplan.geo.ProjectionImpl;
+
+import cs.fau.de.since.radolan.Catalog.Unit;
+import cs.fau.de.since.radolan.Translate;
+
+/**
+ * a radar image view on a decoded grid that lives outside of the heap e.g. in
+ * a memory mapped file
+ * 
+ * @author wf
+ *
+ */
+public class MappedRadarImage extends ProjectionImpl implements RadarImage {
+  private FloatBuffer values; // [y * width + x]
+  private Unit dataUnit;
+  private Duration interval;
+  private ZonedDateTime captureTime;
+
+  /**
+   * construct me
+   * 
+   * @param values
+   *          - the buffer with the values
+   * @param width
+   * @param height
+   * @param dataUnit
+   * @param interval
+   * @param captureTime
+   */
+  public MappedRadarImage(FloatBuffer values, int width, int height,
+      Unit dataUnit, Duration interval, ZonedDateTime captureTime) {
+    this.values = values;
+    this.Dx = width;
+    this.Dy = height;
+    this.dataUnit = dataUnit;
+    this.interval = interval;
+    this.captureTime = captureTime;
+    Translate.calibrateProjection(this);
+  }
+
+  public FloatBuffer getValues() {
+    return values;
+  }
+
+  public ZonedDateTime getCaptureTime() {
+    return captureTime;
+  }
+
+  @Override
+  public Unit getDataUnit() {
+    return dataUnit;
+  }
+
+  @Override
+  public Duration getInterval() {
+    return interval;
+  }
+
+  @Override
+  public float getValue(int x, int y) {
+    float value = Float.NaN;
+    if (y >= 0 && y < Dy)
+      if (x >= 0 && x < Dx)
+        value = values.get(y * Dx + x);
+    return value;
+  }
+
+  @Override
+  public float[] getRow(int y, float[] row) {
+    if (row == null || row.length < Dx)
+      row = new float[Dx];
+    if (y >= 0 && y < Dy) {
+      FloatBuffer rowBuffer = values.duplicate();
+      rowBuffer.position(y * Dx);
+      rowBuffer.get(row, 0, Dx);
+    } else {
+      Arrays.fill(row, 0, Dx, Float.NaN);
+    }
+    return row;
+  }
+}
@@ -0,0 +1,363 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package com.bitplan.radolan;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bitplan.geo.DPoint;
+import com.bitplan.geo.IPoint;
+import com.bitplan.radolan.CompositeArchive.Member;
+import com.bitplan.util.CachedUrl;
+
+import cs.fau.de.since.radolan.Composite;
+import cs.fau.de.since.radolan.Data;
+import cs.fau.de.since.radolan.Data.Encoding;
+
+/**
+ * extracts the values of a product at a single location over a time range
+ * without decoding the grids - the grid position of the location is
+ * translated once per grid size and for each composite only the header and
+ * the one or two bytes of the value are read
+ *
+ * runlength encoded composites are decoded completely
+ *
+ * @author wf
+ *
+ */
+public class PointSeries {
+  // prepare a LOGGER
+  protected static Logger LOGGER = Logger.getLogger("com.bitplan.radolan");
+  public static boolean debug = false;
+  // the largest header is 1801 bytes
+  public static final int HEADER_READ_SIZE = 2048;
+
+  private String product;
+  private DPoint coord;
+  // grid positions by grid size
+  private Map<String, IPoint> gridPoints = new ConcurrentHashMap<String, IPoint>();
+
+  /**
+   * create a series for the given product and location
+   *
+   * @param product
+   *          - e.g. sf
+   * @param coord
+   *          - lat/lon
+   */
+  public PointSeries(String product, DPoint coord) {
+    this.product = product.toLowerCase();
+    this.coord = coord;
+  }
+
+  public String getProduct() {
+    return product;
+  }
+
+  public DPoint getCoord() {
+    return coord;
+  }
+
+  /**
+   * get the grid position of the location in a grid of the given composite
+   *
+   * @param c
+   *          - a composite with a parsed header
+   * @return - the grid position
+   */
+  public IPoint getGridPoint(Composite c) {
+    String key = c.getDx() + "x" + c.getDy();
+    return gridPoints.computeIfAbsent(key, k -> {
+      Composite dummy = Composite.NewDummy(product, c.getDx(), c.getDy());
+      return new IPoint(dummy.translateLatLonToGrid(coord.x, coord.y));
+    });
+  }
+
+  /**
+   * get the offset of the value of the location relative to the start of
+   * the data section of the given composite
+   *
+   * @param c
+   *          - a composite with a parsed header
+   * @return - the offset, -2 if the location is outside of the grid or -1 if
+   *         the encoding does not allow direct access
+   */
+  protected long getOffset(Composite c) {
+    Data data = Data.getInstance();
+    Encoding encoding = data.identifyEncoding(c);
+    int bytes;
+    switch (encoding) {
+    case littleEndian:
+      bytes = 2;
+      break;
+    case singleByte:
+      bytes = 1;
+      break;
+    default:
+      return -1;
+    }
+    IPoint gp = getGridPoint(c);
+    if (gp.x < 0 || gp.x >= c.getDx() || gp.y < 0 || gp.y >= c.getDy())
+      return -2;
+    data.arrangeData(c);
+    int plainRow = c.getDataOffset() / c.getPx() + gp.y;
+    // the rows are stored vertically flipped
+    int row = c.getPy() - 1 - plainRow;
+    return ((long) row * c.getPx() + gp.x) * bytes;
+  }
+
+  /**
+   * decode the given raw value
+   *
+   * @param c
+   * @param value
+   *          - the bytes of the value in file order
+   * @return - the decoded value
+   */
+  protected float decode(Composite c, byte[] value) {
+    if (value.length == 2)
+      return c.getDecodeTable().getLittleEndian()[(value[1] & 0xff) << 8
+          | (value[0] & 0xff)];
+    return c.getDecodeTable().getSingleByte()[value[0] & 0xff];
+  }
+
+  /**
+   * get the number of bytes of a value of the given composite
+   *
+   * @param c
+   * @return - 1 or 2
+   */
+  private int getValueSize(Composite c) {
+    return Data.getInstance().identifyEncoding(c) == Encoding.littleEndian ? 2
+        : 1;
+  }
+
+  /**
+   * decode the composite completely and get the value at the location
+   *
+   * @param c
+   *          - the composite to decode
+   * @return - the value
+   * @throws Throwable
+   */
+  protected float decodeAll(Composite c) throws Throwable {
+    IPoint gp = getGridPoint(c);
+    return c.getValue(gp.x, gp.y);
+  }
+
+  /**
+   * read the value of the location from the given (potentially gzipped)
+   * stream
+   *
+   * @param inputStream
+   * @return - the value
+   * @throws Throwable
+   */
+  public float readValue(InputStream inputStream) throws Throwable {
+    InputStream in = CachedUrl.unzip(inputStream);
+    Composite c = new Composite();
+    c.readHeader(in);
+    long offset = getOffset(c);
+    if (offset == -2)
+      return Float.NaN;
+    if (offset == -1) {
+      Data.getInstance().parseData(c, in);
+      Data.getInstance().arrangeData(c);
+      return decodeAll(c);
+    }
+    DataInputStream dataStream = new DataInputStream(in);
+    long skipped = 0;
+    while (skipped < offset) {
+      long n = dataStream.skip(offset - skipped);
+      if (n <= 0) {
+        dataStream.readByte(); // throws EOFException at the end
+        n = 1;
+      }
+      skipped += n;
+    }
+    byte[] value = new byte[getValueSize(c)];
+    dataStream.readFully(value);
+    return decode(c, value);
+  }
+
+  /**
+   * read the value of the location from the given buffer e.g. a mapped
+   * archive member
+   *
+   * @param content
+   *          - the content of a composite file starting at its position
+   * @return - the value
+   * @throws Throwable
+   */
+  public float readValue(ByteBuffer content) throws Throwable {
+    ByteBuffer buffer = content.slice();
+    if (buffer.limit() >= 2
+        && CachedUrl.isGzip(buffer.get(0), buffer.get(1))) {
+      byte[] zipped = new byte[buffer.limit()];
+      buffer.get(zipped);
+      return readValue(new ByteArrayInputStream(zipped));
+    }
+    Composite c = new Composite();
+    c.read(buffer);
+    long offset = getOffset(c);
+    if (offset == -2)
+      return Float.NaN;
+    if (offset == -1) {
+      c.init();
+      return decodeAll(c);
+    }
+    int pos = (int) (c.header.length() + offset);
+    byte[] value = new byte[getValueSize(c)];
+    for (int i = 0; i < value.length; i++)
+      value[i] = buffer.get(pos + i);
+    return decode(c, value);
+  }
+
+  /**
+   * read the value of the location from the given composite file - for
+   * plain files only the header and the value are read
+   *
+   * @param path
+   * @return - the value
+   * @throws Throwable
+   */
+  public float readValue(Path path) throws Throwable {
+    try (FileChannel channel = FileChannel.open(path,
+        StandardOpenOption.READ)) {
+      ByteBuffer head = ByteBuffer
+          .allocate((int) Math.min(HEADER_READ_SIZE, channel.size()));
+      channel.read(head, 0);
+      head.flip();
+      if (head.limit() >= 2 && CachedUrl.isGzip(head.get(0), head.get(1))) {
+        try (InputStream inputStream = Files.newInputStream(path)) {
+          return readValue(inputStream);
+        }
+      }
+      Composite c = new Composite();
+      c.read(head);
+      long offset = getOffset(c);
+      if (offset == -2)
+        return Float.NaN;
+      if (offset == -1)
+        return decodeAll(Composite.fromPath(path));
+      ByteBuffer value = ByteBuffer.allocate(getValueSize(c));
+      channel.read(value, c.header.length() + offset);
+      if (value.hasRemaining())
+        throw new IOException(path + " is too short");
+      return decode(c, value.array());
+    }
+  }
+
+  /**
+   * get the value of the location at the given time
+   *
+   * @param dateTime
+   * @return - the value
+   * @throws Throwable
+   */
+  public float getValue(LocalDateTime dateTime) throws Throwable {
+    String url = KnownUrl.getUrlForProduct(product, dateTime);
+    if (CompositeArchive.isArchive(url)) {
+      CompositeArchive archive = CompositeArchive.getArchive(url);
+      Member member = archive.getMember(product, dateTime);
+      if (member == null)
+        throw new Exception(String.format("no %s composite for %s in %s",
+            product, dateTime, archive.getTarFile().getName()));
+      File memberFile = new File(archive.getMemberDir(), member.getName());
+      if (memberFile.exists())
+        return readValue(memberFile.toPath());
+      return readValue(archive.read(member));
+    }
+    String cachedUrl = CachedUrl.checkCache(url, Composite.useCache);
+    URL fileUrl = new URL(cachedUrl);
+    if ("file".equals(fileUrl.getProtocol()))
+      return readValue(new File(fileUrl.toURI()).toPath());
+    try (InputStream inputStream = fileUrl.openStream()) {
+      return readValue(inputStream);
+    }
+  }
+
+  /**
+   * get the values of the location in the given time range - composites
+   * that are not available are skipped
+   *
+   * @param from
+   * @param to
+   * @return - the values by time
+   */
+  public TreeMap<LocalDateTime, Float> getValues(LocalDateTime from,
+      LocalDateTime to) {
+    TreeMap<LocalDateTime, Float> values = new TreeMap<LocalDateTime, Float>();
+    for (LocalDateTime dateTime : KnownUrl.getDateTimesForProduct(product,
+        from, to)) {
+      try {
+        values.put(dateTime, getValue(dateTime));
+      } catch (Throwable th) {
+        if (debug)
+          LOGGER.log(Level.WARNING, String.format("no %s value for %s: %s",
+              product, dateTime, th.getMessage()));
+      }
+    }
+    return values;
+  }
+
+  /**
+   * get the daily values of the location e.g. the daily rain sums of the sf
+   * product which are taken at 23:50
+   *
+   * @param from
+   * @param to
+   * @return - the values by day
+   */
+  public TreeMap<LocalDate, Float> getDailyValues(LocalDate from,
+      LocalDate to) {
+    TreeMap<LocalDate, Float> values = new TreeMap<LocalDate, Float>();
+    for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+      try {
+        values.put(day, getValue(day.atTime(23, 50)));
+      } catch (Throwable th) {
+        if (debug)
+          LOGGER.log(Level.WARNING, String.format("no %s value for %s: %s",
+              product, day, th.getMessage()));
+      }
+    }
+    return values;
+  }
+}
@@ -43,6 +43,45 @@ public interface RadarImage extends GeoProjection {
    * @return - the value
    */
   public float getValue(int x, int y);
+
+  /**
+   * get the values of the given grid row
+   * 
+   * @param y
+   * @param row
+   *          - the array to fill - will be created if null or too short
+   * @return - the row
+   */
+  public default float[] getRow(int y, float[] row) {
+    int width = getGridWidth();
+    if (row == null || row.length < width)
+      row = new float[width];
+    for (int x = 0; x < width; x++)
+      row[x] = getValue(x, y);
+    return row;
+  }
+
+  /**
+   * get the values of the given grid region row by row - values outside the
+   * grid are NaN
+   * 
+   * @param x
+   * @param y
+   * @param width
+   * @param height
+   * @param region
+   *          - the array to fill - will be created if null or too short
+   * @return - the region values at [ry * width + rx]
+   */
+  public default float[] getRegion(int x, int y, int width, int height,
+      float[] region) {
+    if (region == null || region.length < width * height)
+      region = new float[width * height];
+    for (int ry = 0; ry < height; ry++)
+      for (int rx = 0; rx < width; rx++)
+        region[ry * width + rx] = getValue(x + rx, y + ry);
+    return region;
+  }
   
   
   /**
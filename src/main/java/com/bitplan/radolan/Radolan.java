@@ -79,10 +79,22 @@ public class Radolan extends Main implements SoftwareVersion {
       "--refreshEvaporationCache" }, usage = "refresh the evaporation cache\ndownload evaporation data for some 500 stations (takes some 3 mins)")
   protected boolean refreshEvaporationCache = false;
 
+  @Option(name = "-rs", aliases = {
+      "--rebuildStore" }, usage = "rebuild store\nimport the cached composites of the product into the memory mapped store file at the given path")
+  protected String storePath = null;
+
+  @Option(name = "-m", aliases = {
+      "--mirror" }, usage = "mirror\nbase url of a mirror of the DWD servers e.g. a MirrorServer")
+  protected String mirror = null;
+
   @Option(name = "-nc", aliases = {
       "--noCache" }, usage = "noCache\ndo not use local cache")
   protected boolean noCache = false;
 
+  @Option(name = "-in", aliases = {
+      "--ingest" }, usage = "ingest\nrun as a service that fetches the composites of the product(s) e.g. ry,rw as they are published")
+  protected boolean ingest = false;
+
   @Option(name = "-l", aliases = {
       "--location" }, usage = "location/show data at the given location")
   protected String location;
@@ -231,6 +243,9 @@ public class Radolan extends Main implements SoftwareVersion {
       if (debug) {
         Debug.activateDebug();
       }
+      if (mirror != null) {
+        KnownUrl.setMirror(mirror);
+      }
       if (noCache) {
         Composite.useCache = false;
       } else {
@@ -243,6 +258,17 @@ public class Radolan extends Main implements SoftwareVersion {
       else {
         if (refreshEvaporationCache) {
           StationManager.refreshEvaporationCache();
+        } else if (ingest) {
+          IngestService ingestService = new IngestService(product.split(","));
+          ingestService.start();
+          ingestService.awaitClose();
+        } else if (storePath != null) {
+          String storeProduct = KnownUrl.getProduct(product);
+          int count = CompositeStore.rebuild(new File(cachePath), storeProduct,
+              new File(storePath));
+          LOGGER.log(Level.INFO, String.format(
+              "imported %d %s composites to %s", count, storeProduct,
+              storePath));
         } else {
           if (input == null && arguments.size() == 0)
             arguments.add("latest");
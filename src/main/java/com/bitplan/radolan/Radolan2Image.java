@@ -152,9 +152,11 @@ public class Radolan2Image {
     if (img == null)
       return;
     PixelWriter pw = img.getPixelWriter();
+    float[] row = new float[width];
     for (int y = 0; y < height; y++) {
+      c.getRow(y, row);
       for (int x = 0; x < width; x++) {
-        float value = c.getValue(x, y);
+        float value = row[x];
         Color color = colorMap.apply(value);
         pw.setColor(x, y, color);
       }
@@ -0,0 +1,325 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package com.bitplan.radolan;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+
+import com.bitplan.geo.DPoint;
+import com.bitplan.geo.IPoint;
+import com.bitplan.geo.ProjectionImpl;
+
+import cs.fau.de.since.radolan.Catalog.Unit;
+import cs.fau.de.since.radolan.Translate;
+
+/**
+ * prefix sum time cube of a product e.g. the daily sf rain sums - slot i
+ * holds the running total of all composites up to and including slot i so
+ * that the total of any window is the difference of two slices: O(1) for a
+ * point and O(grid) for a map
+ *
+ * the running totals are kept in a CompositeStore and the running number of
+ * NaN values per cell in a second store with the extension .nan - a window
+ * with a NaN value or a missing composite is NaN and so is a window that
+ * reaches beyond the first or last slot of the cube
+ *
+ * @author wf
+ *
+ */
+public class RainSumCube extends ProjectionImpl implements Closeable {
+  public static final String NAN_EXT = ".nan";
+
+  private CompositeStore sums;
+  private CompositeStore nans;
+
+  /**
+   * construct me from the given stores
+   *
+   * @param sums
+   * @param nans
+   */
+  private RainSumCube(CompositeStore sums, CompositeStore nans) {
+    this.sums = sums;
+    this.nans = nans;
+    this.Dx = sums.getWidth();
+    this.Dy = sums.getHeight();
+    Translate.calibrateProjection(this);
+  }
+
+  /**
+   * create a new cube - existing files will be overwritten
+   *
+   * @param file
+   * @param product
+   *          - e.g. sf
+   * @param width
+   * @param height
+   * @param start
+   *          - the capture time of the first slot
+   * @param step
+   *          - the time between two slots e.g. one day
+   * @param dataUnit
+   * @return - the cube
+   * @throws IOException
+   */
+  public static RainSumCube create(File file, String product, int width,
+      int height, ZonedDateTime start, Duration step, Unit dataUnit)
+      throws IOException {
+    CompositeStore sums = CompositeStore.create(file, product, width, height,
+        start, step, step, dataUnit);
+    CompositeStore nans = CompositeStore.create(
+        new File(file.getPath() + NAN_EXT), product, width, height, start,
+        step, step, Unit.Unit_unknown);
+    return new RainSumCube(sums, nans);
+  }
+
+  /**
+   * open an existing cube
+   *
+   * @param file
+   * @param readOnly
+   * @return - the cube
+   * @throws IOException
+   */
+  public static RainSumCube open(File file, boolean readOnly)
+      throws IOException {
+    CompositeStore sums = CompositeStore.open(file, readOnly);
+    CompositeStore nans = CompositeStore
+        .open(new File(file.getPath() + NAN_EXT), readOnly);
+    return new RainSumCube(sums, nans);
+  }
+
+  public ZonedDateTime getStart() {
+    return sums.getStart();
+  }
+
+  public Duration getStep() {
+    return sums.getStep();
+  }
+
+  public Unit getDataUnit() {
+    return sums.getDataUnit();
+  }
+
+  /**
+   * @return the number of slots in the cube
+   * @throws IOException
+   */
+  public int getCount() throws IOException {
+    return sums.getSlotCount();
+  }
+
+  /**
+   * @return the capture time of the last slot or null if the cube is empty
+   * @throws IOException
+   */
+  public ZonedDateTime getEnd() throws IOException {
+    int count = getCount();
+    return count == 0 ? null : sums.getTime(count - 1);
+  }
+
+  /**
+   * append the image for the given capture time - slots between the last
+   * one and the given capture time are filled as missing
+   *
+   * @param image
+   * @param captureTime
+   * @throws IOException
+   */
+  public void append(RadarImage image, ZonedDateTime captureTime)
+      throws IOException {
+    int index = sums.getIndex(captureTime);
+    int count = getCount();
+    if (index < count)
+      throw new IOException(String.format(
+          "capture time %s is not aligned after the end %s of the cube",
+          captureTime, getEnd()));
+    int size = Dx * Dy;
+    float[] sum = new float[size];
+    float[] nan = new float[size];
+    if (count > 0) {
+      sums.get(count - 1).getValues().get(sum);
+      nans.get(count - 1).getValues().get(nan);
+    }
+    // a missing composite makes every cell of the slot unknown
+    for (int i = count; i < index; i++) {
+      for (int j = 0; j < size; j++)
+        nan[j]++;
+      put(sum, nan, sums.getTime(i));
+    }
+    float[] row = null;
+    for (int y = 0; y < Dy; y++) {
+      row = image.getRow(y, row);
+      int offset = y * Dx;
+      for (int x = 0; x < Dx; x++) {
+        float value = row[x];
+        if (Float.isNaN(value))
+          nan[offset + x]++;
+        else
+          sum[offset + x] += value;
+      }
+    }
+    put(sum, nan, captureTime);
+  }
+
+  /**
+   * put the given running totals into the slot for the given capture time
+   *
+   * @param sum
+   * @param nan
+   * @param captureTime
+   * @throws IOException
+   */
+  private void put(float[] sum, float[] nan, ZonedDateTime captureTime)
+      throws IOException {
+    sums.put(new MappedRadarImage(FloatBuffer.wrap(sum), Dx, Dy,
+        getDataUnit(), getStep(), captureTime), captureTime);
+    nans.put(new MappedRadarImage(FloatBuffer.wrap(nan), Dx, Dy,
+        Unit.Unit_unknown, getStep(), captureTime), captureTime);
+  }
+
+  /**
+   * get the index of the first slot at or after the given time
+   *
+   * @param time
+   * @return - the index - negative if the time is before the start
+   */
+  protected int indexFrom(ZonedDateTime time) {
+    long seconds = time.toEpochSecond() - getStart().toEpochSecond();
+    long step = getStep().getSeconds();
+    return (int) Math.floorDiv(seconds + step - 1, step);
+  }
+
+  /**
+   * get the index of the last slot at or before the given time
+   *
+   * @param time
+   * @return - the index - at least the number of slots if the time is after
+   *         the end
+   */
+  protected int indexTo(ZonedDateTime time) {
+    long seconds = time.toEpochSecond() - getStart().toEpochSecond();
+    return (int) Math.floorDiv(seconds, getStep().getSeconds());
+  }
+
+  /**
+   * check whether all slots of the window from a to b are in the cube
+   *
+   * @param a
+   * @param b
+   * @return true if the window is covered
+   * @throws IOException
+   */
+  protected boolean isCovered(int a, int b) throws IOException {
+    return a >= 0 && b < getCount();
+  }
+
+  /**
+   * get the total of the slots with capture times in [from, to] at the given
+   * grid position
+   *
+   * @param x
+   * @param y
+   * @param from
+   * @param to
+   * @return - the total - NaN if a value of the window is not known or the
+   *         window is not covered by the cube
+   * @throws IOException
+   */
+  public float getSum(int x, int y, ZonedDateTime from, ZonedDateTime to)
+      throws IOException {
+    int a = indexFrom(from);
+    int b = indexTo(to);
+    if (b < a)
+      return 0;
+    if (!isCovered(a, b))
+      return Float.NaN;
+    float nan = nans.getValue(b, x, y)
+        - (a > 0 ? nans.getValue(a - 1, x, y) : 0);
+    if (Float.isNaN(nan) || nan > 0)
+      return Float.NaN;
+    return sums.getValue(b, x, y) - (a > 0 ? sums.getValue(a - 1, x, y) : 0);
+  }
+
+  /**
+   * get the total at the given coordinate
+   *
+   * @param coord
+   *          - lat/lon
+   * @param from
+   * @param to
+   * @return - the total
+   * @throws IOException
+   */
+  public float getSum(DPoint coord, ZonedDateTime from, ZonedDateTime to)
+      throws IOException {
+    IPoint gp = new IPoint(translateLatLonToGrid(coord.x, coord.y));
+    return getSum(gp.x, gp.y, from, to);
+  }
+
+  /**
+   * get the totals of the slots with capture times in [from, to]
+   *
+   * @param from
+   * @param to
+   * @return - the totals as image - all NaN if the window is not covered by
+   *         the cube
+   * @throws IOException
+   */
+  public RadarImage getSum(ZonedDateTime from, ZonedDateTime to)
+      throws IOException {
+    int a = indexFrom(from);
+    int b = indexTo(to);
+    float[] values = new float[Dx * Dy];
+    if (b >= a && !isCovered(a, b)) {
+      Arrays.fill(values, Float.NaN);
+    } else if (b >= a) {
+      FloatBuffer sumB = sums.get(b).getValues();
+      FloatBuffer nanB = nans.get(b).getValues();
+      FloatBuffer sumA = a > 0 ? sums.get(a - 1).getValues() : null;
+      FloatBuffer nanA = a > 0 ? nans.get(a - 1).getValues() : null;
+      for (int i = 0; i < values.length; i++) {
+        float nan = nanB.get(i) - (nanA == null ? 0 : nanA.get(i));
+        values[i] = nan > 0 ? Float.NaN
+            : sumB.get(i) - (sumA == null ? 0 : sumA.get(i));
+      }
+    }
+    // the window covers the whole interval of each of its slots
+    Duration interval = b >= a ? getStep().multipliedBy(b - a + 1)
+        : Duration.ZERO;
+    return new MappedRadarImage(FloatBuffer.wrap(values), Dx, Dy,
+        getDataUnit(), interval, to);
+  }
+
+  @Override
+  public void close() throws IOException {
+    sums.close();
+    nans.close();
+  }
+}
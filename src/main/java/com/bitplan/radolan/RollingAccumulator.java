@@ -0,0 +1,324 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package com.bitplan.radolan;
+
+import java.nio.FloatBuffer;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.bitplan.radolan.IngestService.IngestListener;
+
+import cs.fau.de.since.radolan.Catalog.Unit;
+import cs.fau.de.since.radolan.Composite;
+
+/**
+ * keeps running sums of a product over sliding windows e.g. 3h, 6h, 24h and
+ * 72h of hourly rw composites - each new composite is added to every window
+ * and the composites that drop out of a window are subtracted so that an
+ * update costs O(grid) per window independent of the window length
+ *
+ * grid cells that are NaN in any composite of a window are NaN in its sum
+ *
+ * composites that arrive late are added to the windows that contain them as
+ * long as they are within the longest window
+ *
+ * @author wf
+ *
+ */
+public class RollingAccumulator implements IngestListener {
+  private String product;
+  private Duration step;
+  // the composites that are still part of a window by time
+  private TreeMap<LocalDateTime, RadarImage> history = new TreeMap<LocalDateTime, RadarImage>();
+  private Map<Duration, Window> windows = new LinkedHashMap<Duration, Window>();
+  private LocalDateTime latest;
+  private int width = -1;
+  private int height = -1;
+  private Unit dataUnit;
+
+  /**
+   * the running sum of a window
+   */
+  static class Window {
+    Duration duration;
+    double[] sums; // [y * width + x]
+    short[] nans; // number of NaN contributions per cell
+    int count;
+  }
+
+  /**
+   * create an accumulator for the given product and windows
+   *
+   * @param product
+   *          - e.g. rw
+   * @param windows
+   *          - the window lengths e.g. 3h, 6h, 24h, 72h
+   * @throws IllegalArgumentException
+   *           - if the composites of the product overlap in time like the
+   *           hourly published 24h sums of sf
+   */
+  public RollingAccumulator(String product, Duration... windows) {
+    this.product = product.toLowerCase();
+    this.step = KnownUrl.getProductStep(this.product);
+    Duration interval = KnownUrl.getProductInterval(this.product);
+    if (interval.compareTo(step) > 0)
+      throw new IllegalArgumentException(String.format(
+          "%s sums up %s but is published every %s - the sums would overlap",
+          this.product, interval, step));
+    for (Duration window : windows)
+      addWindow(window);
+  }
+
+  public String getProduct() {
+    return product;
+  }
+
+  public LocalDateTime getLatest() {
+    return latest;
+  }
+
+  /**
+   * check whether the given dateTime is within the given window ending at the
+   * latest composite
+   *
+   * @param dateTime
+   * @param window
+   * @return true if the dateTime is in (latest - window, latest]
+   */
+  private boolean inWindow(LocalDateTime dateTime, Duration window) {
+    return dateTime.isAfter(latest.minus(window));
+  }
+
+  /**
+   * add a window - the sum is initialized from the composites that are
+   * still available so a window longer than the existing ones is only
+   * complete after enough further composites have been added
+   *
+   * @param duration
+   */
+  public synchronized void addWindow(Duration duration) {
+    if (windows.containsKey(duration))
+      return;
+    Window window = new Window();
+    window.duration = duration;
+    windows.put(duration, window);
+    if (width >= 0) {
+      allocate(window);
+      for (Map.Entry<LocalDateTime, RadarImage> slot : history.entrySet()) {
+        if (inWindow(slot.getKey(), duration))
+          apply(slot.getValue(), 1, window);
+      }
+    }
+  }
+
+  /**
+   * allocate the sums of the given window
+   *
+   * @param window
+   */
+  private void allocate(Window window) {
+    window.sums = new double[width * height];
+    window.nans = new short[width * height];
+  }
+
+  /**
+   * get the longest window
+   *
+   * @return - the duration
+   */
+  private Duration getMaxWindow() {
+    Duration max = Duration.ZERO;
+    for (Duration duration : windows.keySet())
+      if (duration.compareTo(max) > 0)
+        max = duration;
+    return max;
+  }
+
+  /**
+   * add or subtract the given image to the given windows
+   *
+   * @param image
+   * @param sign
+   *          - 1 to add -1 to subtract
+   * @param targets
+   */
+  private void apply(RadarImage image, int sign, Window... targets) {
+    if (targets.length == 0)
+      return;
+    float[] row = null;
+    for (int y = 0; y < height; y++) {
+      row = image.getRow(y, row);
+      int offset = y * width;
+      for (Window window : targets) {
+        double[] sums = window.sums;
+        short[] nans = window.nans;
+        for (int x = 0; x < width; x++) {
+          float value = row[x];
+          if (Float.isNaN(value))
+            nans[offset + x] += sign;
+          else
+            sums[offset + x] += sign * value;
+        }
+      }
+    }
+    for (Window window : targets)
+      window.count += sign;
+  }
+
+  /**
+   * add the composite for the given time - a composite that is older than
+   * the latest one is only added to the windows that contain it
+   *
+   * @param dateTime
+   * @param image
+   * @throws IllegalArgumentException
+   *           - if the composite has already been added, is older than the
+   *           longest window or does not match the grid
+   */
+  public synchronized void add(LocalDateTime dateTime, RadarImage image) {
+    if (history.containsKey(dateTime))
+      throw new IllegalArgumentException(String.format(
+          "%s %s has already been added", product, dateTime));
+    if (latest != null && !dateTime.isAfter(latest)
+        && !inWindow(dateTime, getMaxWindow()))
+      throw new IllegalArgumentException(String.format(
+          "%s %s is older than the longest window ending at %s", product,
+          dateTime, latest));
+    if (width < 0) {
+      width = image.getGridWidth();
+      height = image.getGridHeight();
+      dataUnit = image.getDataUnit();
+      for (Window window : windows.values())
+        allocate(window);
+    } else if (image.getGridWidth() != width
+        || image.getGridHeight() != height) {
+      throw new IllegalArgumentException(String.format(
+          "grid %d x %d of %s %s does not match %d x %d", image.getGridWidth(),
+          image.getGridHeight(), product, dateTime, width, height));
+    }
+    if (latest == null || dateTime.isAfter(latest)) {
+      LocalDateTime previous = latest;
+      latest = dateTime;
+      if (previous != null)
+        slide(previous);
+    }
+    history.put(dateTime, image);
+    List<Window> targets = new ArrayList<Window>();
+    for (Window window : windows.values())
+      if (inWindow(dateTime, window.duration))
+        targets.add(window);
+    apply(image, 1, targets.toArray(new Window[targets.size()]));
+  }
+
+  /**
+   * subtract the composites that dropped out of a window when the latest
+   * composite moved on from the given previous one
+   *
+   * @param previous
+   */
+  private void slide(LocalDateTime previous) {
+    for (Map.Entry<LocalDateTime, RadarImage> slot : history.entrySet()) {
+      List<Window> leaving = new ArrayList<Window>();
+      for (Window window : windows.values()) {
+        boolean wasIn = slot.getKey().isAfter(previous.minus(window.duration));
+        if (wasIn && !inWindow(slot.getKey(), window.duration))
+          leaving.add(window);
+      }
+      apply(slot.getValue(), -1, leaving.toArray(new Window[leaving.size()]));
+    }
+    // forget the composites that are not part of any window any more
+    Duration maxWindow = getMaxWindow();
+    for (Iterator<LocalDateTime> iterator = history.keySet()
+        .iterator(); iterator.hasNext();) {
+      if (!inWindow(iterator.next(), maxWindow))
+        iterator.remove();
+    }
+  }
+
+  @Override
+  public void onComposite(String product, LocalDateTime dateTime,
+      Composite composite) {
+    if (this.product.equals(product))
+      add(dateTime, composite);
+  }
+
+  /**
+   * get the number of composites in the given window
+   *
+   * @param duration
+   * @return - the count
+   */
+  public synchronized int getCount(Duration duration) {
+    return getWindow(duration).count;
+  }
+
+  /**
+   * check whether all composites of the given window have been added
+   *
+   * @param duration
+   * @return true if the window is complete
+   */
+  public synchronized boolean isComplete(Duration duration) {
+    return getCount(duration) == duration.toMinutes() / step.toMinutes();
+  }
+
+  /**
+   * get the window with the given duration
+   *
+   * @param duration
+   * @return - the window
+   */
+  private Window getWindow(Duration duration) {
+    Window window = windows.get(duration);
+    if (window == null)
+      throw new IllegalArgumentException(
+          "no window " + duration + " for " + product);
+    return window;
+  }
+
+  /**
+   * get the sum of the given window ending at the latest composite
+   *
+   * @param duration
+   * @return - the sum as a radar image
+   */
+  public synchronized RadarImage getSum(Duration duration) {
+    Window window = getWindow(duration);
+    if (latest == null)
+      throw new IllegalStateException("no " + product + " composite added");
+    float[] values = new float[width * height];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = window.nans[i] > 0 ? Float.NaN : (float) window.sums[i];
+    }
+    return new MappedRadarImage(FloatBuffer.wrap(values), width, height,
+        dataUnit, duration, latest.atZone(ZoneOffset.UTC));
+  }
+}
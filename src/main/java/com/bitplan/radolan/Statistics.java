@@ -92,6 +92,44 @@ public class Statistics {
       max = value;
   }
 
+  /**
+   * add all the given values to the statistics
+   * 
+   * @param values
+   */
+  public void addAll(float[] values) {
+    addAll(values, 0, values.length);
+  }
+
+  /**
+   * add the given number of values starting at the given offset
+   * 
+   * @param values
+   * @param offset
+   * @param length
+   */
+  public void addAll(float[] values, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      add(values[i]);
+    }
+  }
+
+  /**
+   * merge the given partial statistics into these statistics
+   * 
+   * @param other
+   */
+  public void merge(Statistics other) {
+    setTotal(getTotal() + other.getTotal());
+    countNaN += other.countNaN;
+    count += other.count;
+    sum += other.sum;
+    if (other.min < min)
+      min = other.min;
+    if (other.max > max)
+      max = other.max;
+  }
+
   public String toString() {
     String text = String.format(Locale.ENGLISH,
         "min: %.1f max: %5.1f avg:%4.1f NaN: %7d count: %7d total: %7d", min, max,
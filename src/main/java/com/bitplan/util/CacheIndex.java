@@ -0,0 +1,501 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package com.bitplan.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * index of the files in the cache directory with their size, creation and
+ * last access time - the cache is kept within a byte budget by evicting the
+ * least recently used or oldest files and per product retention rules are
+ * applied e.g. keep sf forever and ry for 7 days
+ *
+ * eviction only uses the index file - the cache directory is only walked
+ * once when there is no index file yet
+ *
+ * added and evicted files are appended to the index file as a journal - a
+ * line with a negative size removes the entry - the whole index is only
+ * rewritten when the journal has grown too long or on flush
+ *
+ * @author wf
+ *
+ */
+public class CacheIndex {
+  // prepare a LOGGER
+  protected static Logger LOGGER = Logger.getLogger("com.bitplan.util");
+  public static boolean debug = false;
+
+  public enum Policy {
+    LRU, AGE
+  }
+
+  public static final String INDEX_FILE = "cache.idx";
+  public static final String INDEX_HEADER = "# radolan cache index v1";
+  public static final Duration FOREVER = ChronoUnit.FOREVER.getDuration();
+
+  // maximum number of bytes in the cache - negative for no limit
+  public static long budget = -1;
+  public static Policy policy = Policy.LRU;
+  // minimum time between saves of the index for access time updates
+  public static long saveIntervalMillis = 10000;
+  // maximum number of journal lines per entry before the index is rewritten
+  public static int journalFactor = 2;
+  // how long the files of a product are kept - products without a rule are
+  // only evicted to keep the budget
+  private static Map<String, Duration> retention = new ConcurrentHashMap<String, Duration>();
+
+  static {
+    // e.g. -Dradolan.cache.budget=10000000000
+    // -Dradolan.cache.retention=sf=forever,ry=P7D
+    String budgetProperty = System.getProperty("radolan.cache.budget");
+    if (budgetProperty != null)
+      budget = Long.parseLong(budgetProperty.trim());
+    String retentionProperty = System.getProperty("radolan.cache.retention");
+    if (retentionProperty != null) {
+      for (String rule : retentionProperty.split(",")) {
+        String[] parts = rule.trim().split("=");
+        if (parts.length == 2)
+          setRetention(parts[0].trim(),
+              "forever".equalsIgnoreCase(parts[1].trim()) ? FOREVER
+                  : Duration.parse(parts[1].trim()));
+      }
+    }
+  }
+
+  // e.g. raa01-sf_10000-1805301650-dwd---bin.gz or SF201805.tar.gz
+  static final Pattern PRODUCT_PATTERN = Pattern
+      .compile("^(?:raa01-([a-z0-9]{2})_|([A-Za-z]{2})[0-9]{6}\\.tar)");
+
+  /**
+   * a cached file
+   */
+  public static class Entry {
+    String path; // relative to the cache root with / separators
+    String product;
+    long size;
+    long created;
+    long accessed;
+
+    public String getPath() {
+      return path;
+    }
+
+    public String getProduct() {
+      return product;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public long getCreated() {
+      return created;
+    }
+
+    public long getAccessed() {
+      return accessed;
+    }
+  }
+
+  private File root;
+  private File indexFile;
+  private Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+  private long totalSize;
+  private long lastSave;
+  private boolean dirty;
+  // lines not yet appended to the index file
+  private List<String> journal = new ArrayList<String>();
+  // number of lines in the index file
+  private int lines;
+
+  /**
+   * create the index for the given cache root
+   *
+   * @param root
+   * @throws IOException
+   */
+  public CacheIndex(File root) throws IOException {
+    this.root = root;
+    this.indexFile = new File(root, INDEX_FILE);
+    if (indexFile.exists()) {
+      load();
+    } else if (root.exists()) {
+      scan();
+      save();
+    }
+  }
+
+  public File getRoot() {
+    return root;
+  }
+
+  public long getTotalSize() {
+    return totalSize;
+  }
+
+  /**
+   * set how long the files of the given product are kept
+   *
+   * @param product
+   *          - e.g. sf
+   * @param duration
+   *          - FOREVER to never evict files of the product
+   */
+  public static void setRetention(String product, Duration duration) {
+    retention.put(product.toLowerCase(), duration);
+  }
+
+  /**
+   * remove the retention rule for the given product
+   *
+   * @param product
+   */
+  public static void removeRetention(String product) {
+    retention.remove(product.toLowerCase());
+  }
+
+  /**
+   * get the product of the given cache file name
+   *
+   * @param name
+   * @return - the product in lower case or null if unknown
+   */
+  public static String getProduct(String name) {
+    Matcher matcher = PRODUCT_PATTERN.matcher(name);
+    if (!matcher.find())
+      return null;
+    String product = matcher.group(1) != null ? matcher.group(1)
+        : matcher.group(2);
+    return product.toLowerCase();
+  }
+
+  /**
+   * get the relative path of the given file
+   *
+   * @param file
+   * @return - the path relative to the cache root
+   */
+  protected String relativePath(File file) {
+    Path path = root.toPath().toAbsolutePath().normalize()
+        .relativize(file.toPath().toAbsolutePath().normalize());
+    return path.toString().replace(File.separatorChar, '/');
+  }
+
+  /**
+   * get the entries of the index
+   *
+   * @return - the entries
+   */
+  public synchronized List<Entry> getEntries() {
+    return new ArrayList<Entry>(entries.values());
+  }
+
+  /**
+   * get the entry for the given file
+   *
+   * @param file
+   * @return the entry or null if the file is not in the index
+   */
+  public synchronized Entry getEntry(File file) {
+    return entries.get(relativePath(file));
+  }
+
+  /**
+   * put an entry
+   *
+   * @param path
+   * @param size
+   * @param created
+   * @param accessed
+   */
+  private void put(String path, long size, long created, long accessed) {
+    Entry entry = entries.get(path);
+    if (entry == null) {
+      entry = new Entry();
+      entry.path = path;
+      entry.product = getProduct(path.substring(path.lastIndexOf('/') + 1));
+      entries.put(path, entry);
+    } else {
+      totalSize -= entry.size;
+    }
+    entry.size = size;
+    entry.created = created;
+    entry.accessed = accessed;
+    totalSize += size;
+  }
+
+  /**
+   * record that the given file has been added to the cache and evict files
+   * if necessary
+   *
+   * @param file
+   * @throws IOException
+   */
+  public synchronized void added(File file) throws IOException {
+    long now = System.currentTimeMillis();
+    String path = relativePath(file);
+    put(path, file.length(), now, now);
+    journal.add(toLine(entries.get(path)));
+    evict(now, path);
+    appendJournal();
+  }
+
+  /**
+   * get the index line for the given entry
+   *
+   * @param entry
+   * @return - the line
+   */
+  private String toLine(Entry entry) {
+    return String.format("%s\t%d\t%d\t%d", entry.path, entry.size,
+        entry.created, entry.accessed);
+  }
+
+  /**
+   * append the pending journal lines to the index file - the index is
+   * rewritten instead if the journal has grown too long
+   *
+   * @throws IOException
+   */
+  private void appendJournal() throws IOException {
+    if (!indexFile.exists()
+        || lines + journal.size() > journalFactor * entries.size() + 100) {
+      save();
+      return;
+    }
+    Files.write(indexFile.toPath(), journal, StandardCharsets.UTF_8,
+        StandardOpenOption.APPEND);
+    lines += journal.size();
+    journal.clear();
+  }
+
+  /**
+   * record an access of the given cached file
+   *
+   * @param file
+   * @throws IOException
+   */
+  public synchronized void accessed(File file) throws IOException {
+    long now = System.currentTimeMillis();
+    Entry entry = entries.get(relativePath(file));
+    if (entry == null) {
+      put(relativePath(file), file.length(), now, now);
+    } else {
+      entry.accessed = now;
+    }
+    dirty = true;
+    if (now - lastSave >= saveIntervalMillis)
+      save();
+  }
+
+  /**
+   * evict the files that are beyond the retention of their product and as
+   * many files as needed to keep the budget
+   *
+   * @param now
+   *          - the current time in epoch milliseconds
+   * @return - the number of evicted files
+   */
+  public synchronized int evict(long now) {
+    return evict(now, null);
+  }
+
+  /**
+   * evict files
+   *
+   * @param now
+   *          - the current time in epoch milliseconds
+   * @param keepPath
+   *          - the path of a file that must not be evicted e.g. the one just
+   *          added - may be null
+   * @return - the number of evicted files
+   */
+  private int evict(long now, String keepPath) {
+    int evicted = 0;
+    for (Entry entry : getEntries()) {
+      Duration keep = entry.product == null ? null
+          : retention.get(entry.product);
+      if (keep != null && !keep.equals(FOREVER)
+          && now - entry.created > keep.toMillis()) {
+        if (remove(entry))
+          evicted++;
+      }
+    }
+    if (budget >= 0 && totalSize > budget) {
+      Comparator<Entry> order = policy == Policy.LRU
+          ? Comparator.comparingLong(Entry::getAccessed)
+          : Comparator.comparingLong(Entry::getCreated);
+      List<Entry> candidates = entries.values().stream()
+          .filter(entry -> !entry.path.equals(keepPath))
+          .filter(entry -> entry.product == null
+              || !FOREVER.equals(retention.get(entry.product)))
+          .sorted(order).collect(Collectors.toList());
+      for (Entry entry : candidates) {
+        if (totalSize <= budget)
+          break;
+        if (remove(entry))
+          evicted++;
+      }
+    }
+    return evicted;
+  }
+
+  /**
+   * remove the given entry and its file
+   *
+   * @param entry
+   * @return true if the file has been removed
+   */
+  private boolean remove(Entry entry) {
+    File file = new File(root, entry.path);
+    if (file.exists() && !file.delete()) {
+      LOGGER.log(Level.WARNING, "could not evict " + file.getPath());
+      return false;
+    }
+    if (debug)
+      LOGGER.log(Level.INFO, "evicted " + entry.path);
+    entries.remove(entry.path);
+    totalSize -= entry.size;
+    journal.add(String.format("%s\t-1\t0\t0", entry.path));
+    return true;
+  }
+
+  /**
+   * build the index from the files in the cache directory
+   *
+   * @throws IOException
+   */
+  protected void scan() throws IOException {
+    try (Stream<Path> paths = Files.walk(root.toPath())) {
+      for (Path path : paths.filter(Files::isRegularFile)
+          .collect(Collectors.toList())) {
+        File file = path.toFile();
+        if (file.equals(indexFile))
+          continue;
+        long modified = file.lastModified();
+        put(relativePath(file), file.length(), modified, modified);
+      }
+    }
+  }
+
+  /**
+   * load the index file
+   *
+   * @throws IOException
+   */
+  protected void load() throws IOException {
+    List<String> lines = Files.readAllLines(indexFile.toPath(),
+        StandardCharsets.UTF_8);
+    for (String line : lines) {
+      if (line.startsWith("#"))
+        continue;
+      String[] fields = line.split("\\t");
+      if (fields.length != 4)
+        throw new IOException(
+            "invalid index line " + line + " in " + indexFile.getPath());
+      long size = Long.parseLong(fields[1]);
+      if (size < 0) {
+        // a journal line of an evicted file
+        Entry entry = entries.remove(fields[0]);
+        if (entry != null)
+          totalSize -= entry.size;
+      } else {
+        put(fields[0], size, Long.parseLong(fields[2]),
+            Long.parseLong(fields[3]));
+      }
+    }
+    this.lines = lines.size();
+  }
+
+  /**
+   * save the index file
+   *
+   * @throws IOException
+   */
+  public synchronized void save() throws IOException {
+    List<String> lines = new ArrayList<String>();
+    lines.add(INDEX_HEADER);
+    for (Entry entry : entries.values()) {
+      lines.add(toLine(entry));
+    }
+    root.mkdirs();
+    File tmpFile = new File(indexFile.getPath() + ".tmp");
+    Files.write(tmpFile.toPath(), lines, StandardCharsets.UTF_8);
+    Files.move(tmpFile.toPath(), indexFile.toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    lastSave = System.currentTimeMillis();
+    dirty = false;
+    this.lines = lines.size();
+    journal.clear();
+  }
+
+  /**
+   * save the index if there are unsaved access time updates or evictions
+   *
+   * @throws IOException
+   */
+  public synchronized void flush() throws IOException {
+    if (dirty || !journal.isEmpty())
+      save();
+  }
+
+  private static CacheIndex instance;
+
+  /**
+   * get the index for the given cache root
+   *
+   * @param root
+   * @return - the index
+   * @throws IOException
+   */
+  public static synchronized CacheIndex getInstance(File root)
+      throws IOException {
+    if (instance == null || !instance.root.equals(root)) {
+      if (instance != null)
+        instance.flush();
+      instance = new CacheIndex(root);
+    }
+    return instance;
+  }
+}
@@ -25,11 +25,12 @@ package com.bitplan.util;
 
 import java.io.*;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 
 import com.bitplan.radolan.KnownUrl;
@@ -46,18 +47,20 @@ public class CachedUrl {
   // prepare a LOGGER
   protected static Logger LOGGER = Logger.getLogger("com.bitplan.util");
   public static boolean debug = false;
+  // if set an uncompressed copy of gzipped cache entries is kept next to
+  // the original so that the content is only inflated once
+  public static boolean unzipCache = Boolean.getBoolean("radolan.cache.unzip");
+  public static final String UNZIPPED_EXT = ".raw";
+  // if set latest urls are cached for a short time and revalidated against
+  // the origin instead of being downloaded on every request
+  public static boolean revalidateLatest = true;
 
   /**
-   * get the cache File for the given url in reference to the given knownUrl
+   * get the root directory of the cache
    * 
-   * @param url
-   * @param knownUrl
-   * @return - the cacheFile
+   * @return - the cache root directory
    */
-  public static File cacheForUrl(String url, String knownUrl) {
-    if (debug)
-      System.out.println(url+"\n\t"+knownUrl);
-    String filePath = url.substring(knownUrl.length(), url.length());
+  public static File getCacheRoot() {
     if (cacheRootPath == null)
       cacheRootPath = System.getProperty("user.home") + java.io.File.separator
           + ".radolan";
@@ -68,10 +71,42 @@ public class CachedUrl {
             "Creating radolan data cache directory " + cacheRoot.getPath());
       cacheRoot.mkdirs();
     }
+    return cacheRoot;
+  }
+
+  /**
+   * get the cache File for the given url in reference to the given knownUrl
+   * 
+   * @param url
+   * @param knownUrl
+   * @return - the cacheFile
+   */
+  public static File cacheForUrl(String url, String knownUrl) {
+    if (debug)
+      System.out.println(url+"\n\t"+knownUrl);
+    String filePath = url.substring(knownUrl.length(), url.length());
+    File cacheRoot = getCacheRoot();
     File cacheFile = new File(cacheRoot, filePath);
     return cacheFile;
   }
 
+  /**
+   * get the cache File for the given url
+   * 
+   * @param url
+   * @return - the cacheFile or null if the url is not cached
+   */
+  public static File cacheForUrl(String url) {
+    if (url.contains("-latest-"))
+      return null;
+    for (String knownUrl : KnownUrl.knownUrls) {
+      if (url.startsWith(knownUrl)) {
+        return cacheForUrl(url, knownUrl);
+      }
+    }
+    return null;
+  }
+
   /**
    * use the cache for the given URL
    * 
@@ -83,21 +118,93 @@ public class CachedUrl {
    */
   public static String useCache(String url, String knownUrl) throws Exception {
     File cacheFile = cacheForUrl(url, knownUrl);
+    CacheIndex cacheIndex = CacheIndex.getInstance(getCacheRoot());
+    if (unzipCache) {
+      File unzippedFile = getUnzippedFile(cacheFile);
+      if (unzippedFile != null && unzippedFile.exists()) {
+        if (debug)
+          LOGGER.log(Level.INFO,
+              "getting unzipped cached file from " + unzippedFile.getPath());
+        cacheIndex.accessed(unzippedFile);
+        return unzippedFile.toURI().toURL().toExternalForm();
+      }
+    }
     if (!cacheFile.exists()) {
-      URL uri = new URL(url);
       if (debug)
         LOGGER.log(Level.INFO,
             String.format("caching %s to %s", url, cacheFile.getPath()));
-      // cache the URL content
-      FileUtils.copyURLToFile(uri, cacheFile);
+      // cache the URL content - concurrent requests share the download
+      DownloadCoordinator.getInstance().download(KnownUrl.getMirroredUrl(url),
+          cacheFile);
+      // track the new file and keep the cache within its budget
+      cacheIndex.added(cacheFile);
     } else {
       if (debug)
         LOGGER.log(Level.INFO,
             "getting cached file from " + cacheFile.getPath());
+      cacheIndex.accessed(cacheFile);
+    }
+    if (unzipCache) {
+      File unzippedFile = unzip(cacheFile);
+      if (unzippedFile != null) {
+        cacheIndex.added(unzippedFile);
+        return unzippedFile.toURI().toURL().toExternalForm();
+      }
     }
     return cacheFile.toURI().toURL().toExternalForm();
   }
 
+  /**
+   * get the file for the uncompressed copy of the given cache file
+   * 
+   * @param cacheFile
+   * @return - the file or null if the cache file is an archive that is
+   *         handled by the CompositeArchive
+   */
+  public static File getUnzippedFile(File cacheFile) {
+    String name = cacheFile.getName();
+    if (name.endsWith(".tar.gz") || name.endsWith(".tgz"))
+      return null;
+    return new File(cacheFile.getPath() + UNZIPPED_EXT);
+  }
+
+  /**
+   * store an uncompressed copy of the given cache file if it is gzipped
+   * 
+   * @param cacheFile
+   * @return - the uncompressed copy or null if the file is not gzipped
+   * @throws IOException
+   */
+  public static File unzip(File cacheFile) throws IOException {
+    File unzippedFile = getUnzippedFile(cacheFile);
+    if (unzippedFile == null)
+      return null;
+    byte[] magic = new byte[2];
+    try (InputStream in = new FileInputStream(cacheFile)) {
+      if (in.read(magic) != 2 || !isGzip(magic[0], magic[1]))
+        return null;
+    }
+    // concurrent readers each write their own temporary file and the first
+    // rename wins
+    File tmpFile = File.createTempFile(cacheFile.getName(), ".tmp",
+        cacheFile.getParentFile());
+    try {
+      try (InputStream in = new GZIPInputStream(
+          new FileInputStream(cacheFile), 65536)) {
+        Files.copy(in, tmpFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      Files.move(tmpFile.toPath(), unzippedFile.toPath(),
+          StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      if (debug)
+        LOGGER.log(Level.INFO, String.format("unzipped %s to %s",
+            cacheFile.getPath(), unzippedFile.getPath()));
+    } finally {
+      if (tmpFile.exists())
+        tmpFile.delete();
+    }
+    return unzippedFile;
+  }
+
   /**
    * if the cache is not active or the url is not starting with a known url then
    * return the url as is when the local cache is active then check if the url
@@ -114,11 +221,17 @@ public class CachedUrl {
   public static String checkCache(String url, boolean useCache)
       throws Exception {
     if (!useCache)
-      return url;
-    if (url.contains("-latest-"))
-      return url;
+      return KnownUrl.getMirroredUrl(url);
+    boolean latest = url.contains("-latest-");
+    if (latest && !revalidateLatest)
+      return KnownUrl.getMirroredUrl(url);
     for (String knownUrl : KnownUrl.knownUrls) {
       if (url.startsWith(knownUrl)) {
+        if (latest) {
+          File cacheFile = LatestCache.getInstance().get(url,
+              cacheForUrl(url, knownUrl));
+          return cacheFile.toURI().toURL().toExternalForm();
+        }
         return useCache(url, knownUrl);
       }
     }
@@ -156,6 +269,41 @@ public class CachedUrl {
     return text;
   }
 
+  /**
+   * check the gzip magic number
+   * 
+   * @param first
+   *          - the first byte of the content
+   * @param second
+   *          - the second byte of the content
+   * @return true if the content is gzipped
+   */
+  public static boolean isGzip(byte first, byte second) {
+    int magic = ((first & 0xff) << 8) | (second & 0xff);
+    return magic == 0x1f8b;
+  }
+
+  /**
+   * get a buffered stream for the given (potentially zipped) inputstream -
+   * gzipped content is decompressed while reading
+   * 
+   * @param inputStream
+   * @return the uncompressed stream
+   * @throws IOException
+   */
+  public static InputStream unzip(InputStream inputStream) throws IOException {
+    InputStream in = inputStream instanceof BufferedInputStream ? inputStream
+        : new BufferedInputStream(inputStream);
+    in.mark(2);
+    int first = in.read();
+    int second = in.read();
+    in.reset();
+    if (first >= 0 && second >= 0 && isGzip((byte) first, (byte) second)) {
+      in = new BufferedInputStream(new GZIPInputStream(in));
+    }
+    return in;
+  }
+
   /**
    * read the bytes from the given (potentially zipped) inputstream
    * 
@@ -170,8 +318,7 @@ public class CachedUrl {
     if (lbytes.length < 2) {
       throw new Exception("input is empty");
     }
-    int magic = ((lbytes[0] & 0xff) << 8) | (lbytes[1] & 0xff);
-    if (magic == 0x1f8b) {
+    if (isGzip(lbytes[0], lbytes[1])) {
       int zippedLength = lbytes.length;
       InputStream gzStream = new GZIPInputStream(
           new ByteArrayInputStream(lbytes));
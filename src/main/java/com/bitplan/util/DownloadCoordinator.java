@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package com.bitplan.util;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * coordinates the downloads to the cache - concurrent requests for the same
+ * file share a single download, the content is written to a temporary file
+ * that is renamed atomically when complete and the number of parallel
+ * downloads is bounded
+ *
+ * @author wf
+ *
+ */
+public class DownloadCoordinator {
+  // prepare a LOGGER
+  protected static Logger LOGGER = Logger.getLogger("com.bitplan.util");
+  public static boolean debug = false;
+  // maximum number of parallel downloads of the shared instance
+  public static int maxParallel = 4;
+
+  private final int parallel;
+  private final Semaphore permits;
+  private final ConcurrentHashMap<File, CompletableFuture<File>> inFlight = new ConcurrentHashMap<File, CompletableFuture<File>>();
+  private ExecutorService executor;
+  private final AtomicInteger downloadCount = new AtomicInteger();
+
+  /**
+   * create a coordinator with the given maximum number of parallel downloads
+   *
+   * @param parallel
+   */
+  public DownloadCoordinator(int parallel) {
+    this.parallel = parallel;
+    this.permits = new Semaphore(parallel, true);
+  }
+
+  public int getParallel() {
+    return parallel;
+  }
+
+  /**
+   * @return the number of downloads that have been started
+   */
+  public int getDownloadCount() {
+    return downloadCount.get();
+  }
+
+  /**
+   * make sure the content of the given url is available in the given file -
+   * blocks until the file is available
+   *
+   * @param url
+   * @param file
+   * @return - the file
+   * @throws Exception
+   *           - if the download failed
+   */
+  public File download(String url, File file) throws Exception {
+    if (file.exists())
+      return file;
+    CompletableFuture<File> future = new CompletableFuture<File>();
+    CompletableFuture<File> running = inFlight.putIfAbsent(file, future);
+    if (running != null) {
+      // somebody else is already downloading this file
+      try {
+        return running.get();
+      } catch (ExecutionException ee) {
+        Throwable cause = ee.getCause();
+        if (cause instanceof Exception)
+          throw (Exception) cause;
+        throw ee;
+      }
+    }
+    try {
+      if (!file.exists())
+        fetch(url, file);
+      future.complete(file);
+      return file;
+    } catch (Exception e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(file, future);
+    }
+  }
+
+  /**
+   * download the content of the given url to the given file in the background
+   *
+   * @param url
+   * @param file
+   * @return - a future for the file
+   */
+  public CompletableFuture<File> downloadAsync(String url, File file) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return download(url, file);
+      } catch (Exception e) {
+        throw new CompletionException(e);
+      }
+    }, getExecutor());
+  }
+
+  /**
+   * get the executor for background downloads
+   *
+   * @return - the executor
+   */
+  protected synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(parallel, runnable -> {
+        Thread thread = new Thread(runnable, "radolan-download");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return executor;
+  }
+
+  /**
+   * fetch the url content to a temporary file and rename it to the given file
+   * - an interrupted download never leaves a truncated file behind
+   *
+   * @param url
+   * @param file
+   * @throws Exception
+   */
+  protected void fetch(String url, File file) throws Exception {
+    permits.acquire();
+    File partFile = new File(file.getPath() + ".part");
+    try {
+      downloadCount.incrementAndGet();
+      if (debug)
+        LOGGER.log(Level.INFO,
+            String.format("caching %s to %s", url, file.getPath()));
+      FileUtils.copyURLToFile(new URL(url), partFile);
+      Files.move(partFile.toPath(), file.toPath(),
+          StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      permits.release();
+      if (partFile.exists())
+        partFile.delete();
+    }
+  }
+
+  private static DownloadCoordinator instance;
+
+  /**
+   * get the shared coordinator
+   *
+   * @return - the instance
+   */
+  public static synchronized DownloadCoordinator getInstance() {
+    if (instance == null)
+      instance = new DownloadCoordinator(maxParallel);
+    return instance;
+  }
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package com.bitplan.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bitplan.radolan.KnownUrl;
+
+/**
+ * short lived cache tier for the -latest- urls - the local copy is used for
+ * ttlMillis and then revalidated against the origin with a conditional
+ * request (If-None-Match / If-Modified-Since) so that the content is only
+ * downloaded again when a new file has been published
+ *
+ * @author wf
+ *
+ */
+public class LatestCache {
+  // prepare a LOGGER
+  protected static Logger LOGGER = Logger.getLogger("com.bitplan.util");
+  public static boolean debug = false;
+  // time in milliseconds a latest file is used without asking the origin
+  public static long ttlMillis = 60 * 1000;
+  public static final String META_EXT = ".meta";
+
+  /**
+   * the state of a cached latest url
+   */
+  static class State {
+    File file;
+    String etag;
+    String lastModified;
+    long checked;
+  }
+
+  private final ConcurrentHashMap<String, State> states = new ConcurrentHashMap<String, State>();
+  private final AtomicInteger revalidations = new AtomicInteger();
+  private final AtomicInteger downloads = new AtomicInteger();
+
+  /**
+   * @return the number of requests sent to the origin
+   */
+  public int getRevalidations() {
+    return revalidations.get();
+  }
+
+  /**
+   * @return the number of times the content has been downloaded
+   */
+  public int getDownloads() {
+    return downloads.get();
+  }
+
+  /**
+   * get the state for the given local copy - the validators of a previous
+   * run are read from the meta file
+   *
+   * @param cacheFile
+   * @return - the state
+   */
+  private State getState(File cacheFile) {
+    return states.computeIfAbsent(cacheFile.getAbsolutePath(), key -> {
+      State state = new State();
+      state.file = cacheFile;
+      File metaFile = new File(cacheFile.getPath() + META_EXT);
+      if (cacheFile.exists() && metaFile.exists()) {
+        Properties meta = new Properties();
+        try (InputStream in = new FileInputStream(metaFile)) {
+          meta.load(in);
+          state.etag = meta.getProperty("etag");
+          state.lastModified = meta.getProperty("lastModified");
+        } catch (IOException e) {
+          LOGGER.log(Level.WARNING, "could not read " + metaFile.getPath(), e);
+        }
+      }
+      return state;
+    });
+  }
+
+  /**
+   * get the local copy of the given latest url - revalidate it if it is
+   * older than the ttl
+   *
+   * @param url
+   *          - the latest url
+   * @param cacheFile
+   *          - the file for the local copy
+   * @return - the file
+   * @throws Exception
+   *           - if there is no local copy and the download failed
+   */
+  public File get(String url, File cacheFile) throws Exception {
+    State state = getState(cacheFile);
+    synchronized (state) {
+      long now = System.currentTimeMillis();
+      if (cacheFile.exists() && now - state.checked < ttlMillis)
+        return cacheFile;
+      try {
+        revalidate(url, state);
+        state.checked = now;
+      } catch (Exception e) {
+        if (!cacheFile.exists())
+          throw e;
+        // serve the stale copy - the next request will try again
+        LOGGER.log(Level.WARNING,
+            "revalidation of " + url + " failed: " + e.getMessage());
+      }
+      return cacheFile;
+    }
+  }
+
+  /**
+   * get the version of the given local copy of a latest url
+   *
+   * @param cacheFile
+   * @return - the validator of the content or null if the file is not
+   *         cached
+   */
+  public String getVersion(File cacheFile) {
+    State state = states.get(cacheFile.getAbsolutePath());
+    if (state == null)
+      return null;
+    synchronized (state) {
+      if (!state.file.exists())
+        return null;
+      if (state.etag != null)
+        return state.etag;
+      if (state.lastModified != null)
+        return state.lastModified;
+      return state.file.length() + "-" + state.file.lastModified();
+    }
+  }
+
+  /**
+   * ask the origin whether the content has changed and download it if so
+   *
+   * @param url
+   * @param state
+   * @throws Exception
+   */
+  protected void revalidate(String url, State state) throws Exception {
+    revalidations.incrementAndGet();
+    URLConnection connection = new URL(KnownUrl.getMirroredUrl(url))
+        .openConnection();
+    if (connection instanceof HttpURLConnection) {
+      HttpURLConnection http = (HttpURLConnection) connection;
+      if (state.file.exists()) {
+        if (state.etag != null)
+          http.setRequestProperty("If-None-Match", state.etag);
+        if (state.lastModified != null)
+          http.setRequestProperty("If-Modified-Since", state.lastModified);
+      }
+      int code = http.getResponseCode();
+      if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        if (debug)
+          LOGGER.log(Level.INFO, url + " not modified");
+        return;
+      }
+      if (code != HttpURLConnection.HTTP_OK)
+        throw new IOException(
+            String.format("HTTP %d for %s", code, http.getURL()));
+    }
+    downloads.incrementAndGet();
+    if (debug)
+      LOGGER.log(Level.INFO, String.format("caching %s to %s", url,
+          state.file.getPath()));
+    state.file.getParentFile().mkdirs();
+    File partFile = new File(state.file.getPath() + ".part");
+    try {
+      try (InputStream in = connection.getInputStream()) {
+        Files.copy(in, partFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      Files.move(partFile.toPath(), state.file.toPath(),
+          StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      if (partFile.exists())
+        partFile.delete();
+    }
+    state.etag = connection.getHeaderField("ETag");
+    state.lastModified = connection.getHeaderField("Last-Modified");
+    writeMeta(state);
+    CacheIndex.getInstance(CachedUrl.getCacheRoot()).added(state.file);
+  }
+
+  /**
+   * write the validators of the given state to the meta file
+   *
+   * @param state
+   * @throws IOException
+   */
+  private void writeMeta(State state) throws IOException {
+    Properties meta = new Properties();
+    if (state.etag != null)
+      meta.setProperty("etag", state.etag);
+    if (state.lastModified != null)
+      meta.setProperty("lastModified", state.lastModified);
+    try (OutputStream out = new FileOutputStream(
+        state.file.getPath() + META_EXT)) {
+      meta.store(out, "validators of the latest file");
+    }
+  }
+
+  /**
+   * forget the ttl and validators of all urls
+   */
+  public void clear() {
+    states.clear();
+  }
+
+  private static LatestCache instance;
+
+  /**
+   * get the shared latest cache
+   *
+   * @return - the instance
+   */
+  public static synchronized LatestCache getInstance() {
+    if (instance == null)
+      instance = new LatestCache();
+    return instance;
+  }
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package com.bitplan.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import com.bitplan.radolan.KnownUrl;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * small embedded http server that serves a local directory laid out like the
+ * DWD tree e.g. root/opendata.dwd.de/weather/radar/radolan/sf/... - together
+ * with KnownUrl.setMirror the composite loaders can be used without access to
+ * the DWD servers
+ *
+ * @author wf
+ *
+ */
+public class MirrorServer implements Closeable {
+  // prepare a LOGGER
+  protected static Logger LOGGER = Logger.getLogger("com.bitplan.util");
+  public static boolean debug = false;
+  // number of threads serving requests
+  public static int threads = 8;
+
+  private Path root;
+  private HttpServer server;
+  private ExecutorService executor;
+
+  /**
+   * create a server for the given directory
+   *
+   * @param root
+   *          - the directory to serve
+   * @param port
+   *          - the port to listen on - 0 for any free port
+   * @throws IOException
+   */
+  public MirrorServer(File root, int port) throws IOException {
+    this.root = root.toPath().toAbsolutePath().normalize();
+    server = HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.createContext("/", exchange -> {
+      try {
+        handle(exchange);
+      } finally {
+        exchange.close();
+      }
+    });
+  }
+
+  /**
+   * start serving
+   *
+   * @return - this server
+   */
+  public MirrorServer start() {
+    executor = Executors.newFixedThreadPool(threads);
+    server.setExecutor(executor);
+    server.start();
+    if (debug)
+      LOGGER.log(Level.INFO,
+          String.format("serving %s at %s", root, getBaseUrl()));
+    return this;
+  }
+
+  /**
+   * @return the base url of this server
+   */
+  public String getBaseUrl() {
+    return String.format("http://%s:%d",
+        server.getAddress().getAddress().getHostAddress(),
+        server.getAddress().getPort());
+  }
+
+  /**
+   * handle a request
+   *
+   * @param exchange
+   * @throws IOException
+   */
+  protected void handle(HttpExchange exchange) throws IOException {
+    String method = exchange.getRequestMethod();
+    if (!"GET".equals(method) && !"HEAD".equals(method)) {
+      exchange.sendResponseHeaders(405, -1);
+      return;
+    }
+    URI uri = exchange.getRequestURI();
+    Path path = root.resolve("." + uri.getPath()).normalize();
+    if (!path.startsWith(root) || !Files.exists(path)) {
+      if (debug)
+        LOGGER.log(Level.INFO, "not found: " + uri);
+      exchange.sendResponseHeaders(404, -1);
+      return;
+    }
+    byte[] listing = null;
+    long length;
+    if (Files.isDirectory(path)) {
+      listing = getListing(path, uri.getPath());
+      length = listing.length;
+      exchange.getResponseHeaders().set("Content-Type",
+          "text/html; charset=utf-8");
+    } else {
+      length = Files.size(path);
+      exchange.getResponseHeaders().set("Content-Type",
+          "application/octet-stream");
+    }
+    Instant modified = Files.getLastModifiedTime(path).toInstant();
+    exchange.getResponseHeaders().set("Last-Modified",
+        DateTimeFormatter.RFC_1123_DATE_TIME
+            .format(modified.atOffset(ZoneOffset.UTC)));
+    String etag = String.format("\"%x-%x\"", length,
+        modified.toEpochMilli());
+    exchange.getResponseHeaders().set("ETag", etag);
+    if (isNotModified(exchange, etag, modified)) {
+      exchange.sendResponseHeaders(304, -1);
+      return;
+    }
+    if ("HEAD".equals(method)) {
+      exchange.getResponseHeaders().set("Content-Length", "" + length);
+      exchange.sendResponseHeaders(200, -1);
+      return;
+    }
+    exchange.sendResponseHeaders(200, length == 0 ? -1 : length);
+    if (length > 0) {
+      try (OutputStream out = exchange.getResponseBody()) {
+        if (listing != null)
+          out.write(listing);
+        else
+          Files.copy(path, out);
+      }
+    }
+  }
+
+  /**
+   * check the conditional headers of the given request
+   *
+   * @param exchange
+   * @param etag
+   * @param modified
+   * @return true if the client has the current content
+   */
+  protected boolean isNotModified(HttpExchange exchange, String etag,
+      Instant modified) {
+    String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+    if (ifNoneMatch != null)
+      return ifNoneMatch.equals(etag);
+    String ifModifiedSince = exchange.getRequestHeaders()
+        .getFirst("If-Modified-Since");
+    if (ifModifiedSince != null) {
+      try {
+        Instant since = ZonedDateTime
+            .parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME)
+            .toInstant();
+        return modified.getEpochSecond() <= since.getEpochSecond();
+      } catch (DateTimeParseException e) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * get a simple html listing of the given directory
+   *
+   * @param dir
+   * @param uriPath
+   * @return the listing
+   * @throws IOException
+   */
+  protected byte[] getListing(Path dir, String uriPath) throws IOException {
+    StringBuilder html = new StringBuilder();
+    String base = uriPath.endsWith("/") ? uriPath : uriPath + "/";
+    html.append("<html><head><title>Index of ").append(base)
+        .append("</title></head><body><pre>\n");
+    try (Stream<Path> children = Files.list(dir)) {
+      children.map(child -> child.getFileName().toString()
+          + (Files.isDirectory(child) ? "/" : "")).sorted()
+          .forEach(name -> html.append("<a href=\"").append(base).append(name)
+              .append("\">").append(name).append("</a>\n"));
+    }
+    html.append("</pre></body></html>\n");
+    return html.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    if (executor != null)
+      executor.shutdownNow();
+  }
+
+  /**
+   * serve the given directory and use it as mirror for the known urls
+   *
+   * @param args
+   *          - directory [port]
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("usage: MirrorServer directory [port]");
+      System.exit(1);
+    }
+    int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+    MirrorServer mirrorServer = new MirrorServer(new File(args[0]), port)
+        .start();
+    System.out.println(String.format(
+        "serving %s at %s - use -Dradolan.mirror=%s to read from it", args[0],
+        mirrorServer.getBaseUrl(), mirrorServer.getBaseUrl()));
+    KnownUrl.setMirror(mirrorServer.getBaseUrl());
+    for (String knownUrl : KnownUrl.knownUrls) {
+      System.out.println(
+          knownUrl + " -> " + KnownUrl.getMirroredUrl(knownUrl));
+    }
+  }
+}
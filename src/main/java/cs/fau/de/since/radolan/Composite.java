@@ -26,8 +26,16 @@ package cs.fau.de.since.radolan;
 
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.time.ZonedDateTime;
+import java.util.Arrays;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 
@@ -109,6 +117,9 @@ public class Composite extends ProjectionImpl implements RadarImage,GeoProjectio
   // by default files from known URL are cached locally
   // see https://github.com/BITPlan/com.bitplan.radolan/issues/3
   public static boolean useCache = true;
+  // decode composites from urls and streams while reading - the memory needed
+  // is bounded by the grid but bytes and buffer are not available then
+  public static boolean streamDecode = false;
   
   private String Product; // composite product label
 
@@ -118,20 +129,32 @@ public class Composite extends ProjectionImpl implements RadarImage,GeoProjectio
 
   private Unit DataUnit;
 
-  public float[][] PlainData; // data for parsed plain data element [y][x]
+  // data for parsed plain data element [y * Px + x] - only set when the data
+  // has been decoded completely
+  public volatile float[] PlainData;
+  // the grid the data is decoded into before it is published as PlainData
+  float[] decoding;
 
   private int Px; // plain data width
   private int Py; // plain data height
+  private int Dz = 1; // number of data layers
+  // start of the first data layer in PlainData - elevation is stripped by
+  // skipping the preceeding rows
+  private int dataOffset;
 
   private int dataLength; // length of binary section in bytes
 
   private int precision; // multiplicator 10^precision for each raw value
   private double precisionFactor;
+  private DecodeTable decodeTable; // precomputed rvp-6 values
   float[] level; // maps data value to corresponding index value in runlength
                  // based formats
 
 
   public byte bytes[];
+  // content of the composite starting with the header - wraps bytes or
+  // is a read only view e.g. of a memory mapped file
+  public ByteBuffer buffer;
   public String header;
 
   private Statistics statistics;
@@ -139,6 +162,8 @@ public class Composite extends ProjectionImpl implements RadarImage,GeoProjectio
   // for lambda error handling
   public Throwable error;
   protected String url;
+  // only parse the header and defer parsing the data until first access
+  private boolean lazy = false;
 
   // CallBacks
   private static Consumer<Composite> postInit;
@@ -175,6 +200,22 @@ public class Composite extends ProjectionImpl implements RadarImage,GeoProjectio
     Py = py;
   }
 
+  public int getDz() {
+    return Dz;
+  }
+
+  public void setDz(int dz) {
+    Dz = dz;
+  }
+
+  public int getDataOffset() {
+    return dataOffset;
+  }
+
+  public void setDataOffset(int dataOffset) {
+    this.dataOffset = dataOffset;
+  }
+
   public int getDataLength() {
     return dataLength;
   }
@@ -200,6 +241,17 @@ public class Composite extends ProjectionImpl implements RadarImage,GeoProjectio
     this.precisionFactor = precisionFactor;
   }
 
+  /**
+   * get the decode table matching my precision and data unit
+   * 
+   * @return - the shared decode table
+   */
+  public DecodeTable getDecodeTable() {
+    if (decodeTable == null || !decodeTable.matches(precision, DataUnit))
+      decodeTable = DecodeTable.getTable(precision, DataUnit);
+    return decodeTable;
+  }
+
   public Unit getDataUnit() {
     return DataUnit;
   }
@@ -224,6 +276,14 @@ public class Composite extends ProjectionImpl implements RadarImage,GeoProjectio
     this.statistics = statistics;
   }
 
+  public ZonedDateTime getCaptureTime() {
+    return CaptureTime;
+  }
+
+  public void setCaptureTime(ZonedDateTime captureTime) {
+    CaptureTime = captureTime;
+  }
+
   public ZonedDateTime getForecastTime() {
     return ForecastTime;
   }
@@ -277,23 +337,57 @@ public class Composite extends ProjectionImpl implements RadarImage,GeoProjectio
    * @throws Throwable
    */
   public Composite(String url) throws Throwable {
+    this(url, false);
+  }
+
+  /**
+   * construct me from an url - if lazy is set only the header is parsed and
+   * the data is parsed on first access
+   * 
+   * @param url
+   * @param lazy
+   * @throws Throwable
+   */
+  public Composite(String url, boolean lazy) throws Throwable {
     this();
+    this.lazy = lazy;
     if (debug)
       LOGGER.log(Level.INFO, "getting composite for url " + url);
     this.url = CachedUrl.checkCache(url,useCache);
 
-    InputStream inputStream = new URL(url).openStream();
-    read(inputStream);
-    init();
+    InputStream inputStream = new URL(this.url).openStream();
+    if (streamDecode && !lazy)
+      decode(inputStream);
+    else {
+      read(inputStream);
+      init();
+    }
     inputStream.close();
   }
 
   public Composite(InputStream inputstream) throws Throwable {
+    this(inputstream, false);
+  }
+
+  /**
+   * construct me from the given inputstream
+   * 
+   * @param inputstream
+   * @param lazy
+   *          - if true only parse the header and defer parsing the data
+   * @throws Throwable
+   */
+  public Composite(InputStream inputstream, boolean lazy) throws Throwable {
     this();
+    this.lazy = lazy;
     if (debug)
       LOGGER.log(Level.INFO, "getting composite for url " + url);
-    read(inputstream);
-    init();
+    if (streamDecode && !lazy)
+      decode(inputstream);
+    else {
+      read(inputstream);
+      init();
+    }
     inputstream.close();
   }
  
@@ -303,6 +397,23 @@ public class Composite extends ProjectionImpl implements RadarImage,GeoProjectio
    * @throws Throwable
    */
   public void init() throws Throwable {
+    if (!lazy)
+      initData();
+    else
+      arrangeData(); // the layers only depend on the header
+    calibrateProjection();
+    // is there a callback installed?
+    if (!lazy && postInit != null) {
+      postInit.accept(this);
+    }
+  }
+
+  /**
+   * parse and arrange the data
+   * 
+   * @throws Throwable
+   */
+  protected void initData() throws Throwable {
     parseData();
     arrangeData();
     if (debug)
@@ -310,13 +421,74 @@ public class Composite extends ProjectionImpl implements RadarImage,GeoProjectio
           String.format("parsed %7d grid values for %3d x %3d grid",
               statistics.getTotal(),
               this.getGridWidth(), this.getGridHeight()));
-    calibrateProjection();
-    // is there a callback installed?
-    if (postInit != null) {
-      postInit.accept(this);
+  }
+
+  /**
+   * make sure the data of a lazy composite is available
+   * 
+   * @throws Throwable
+   */
+  public synchronized void loadData() throws Throwable {
+    // a failed decode leaves the data unset so that it is retried
+    if (!isLoaded()) {
+      initData();
+      if (postInit != null) {
+        postInit.accept(this);
+      }
+    }
+  }
+
+  /**
+   * check whether the data has been parsed
+   * 
+   * @return true if the data is available
+   */
+  public boolean isLoaded() {
+    return PlainData != null;
+  }
+
+  public boolean isLazy() {
+    return lazy;
+  }
+
+  /**
+   * load the data on first access
+   */
+  protected void loadDataOnAccess() {
+    try {
+      loadData();
+    } catch (Throwable th) {
+      error = th;
+      throw new RuntimeException("loading data failed for " + url, th);
     }
   }
 
+  /**
+   * get the plain data - load it first if this is a lazy composite that has
+   * not been loaded yet
+   * 
+   * @return - the plain data
+   */
+  private float[] data() {
+    float[] data = PlainData;
+    if (data == null && lazy) {
+      loadDataOnAccess();
+      data = PlainData;
+    }
+    return data;
+  }
+
+  /**
+   * get the grid to write decoded values to - the grid being decoded while
+   * parsing
+   * 
+   * @return - the grid
+   */
+  private float[] target() {
+    float[] target = decoding;
+    return target != null ? target : data();
+  }
+
   // NewDummy creates a blank dummy composite with the given product label and
   // dimensions. It can
   // be used for generic coordinate translation.
@@ -336,20 +508,132 @@ public class Composite extends ProjectionImpl implements RadarImage,GeoProjectio
    */
   public void read(InputStream inputStream) throws Exception {
     bytes = CachedUrl.readBytes(inputStream);
-    StringBuffer headerBuffer = new StringBuffer();
-    int pos = 0;
-    // read until 0x03 is found or we are way into the binary 2 x typical width
+    read(ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * read the header from the given buffer and keep the buffer as the source
+   * for the data
+   * 
+   * @param pBuffer
+   * @throws Exception
+   */
+  public void read(ByteBuffer pBuffer) throws Exception {
+    buffer = pBuffer;
+    // scan until 0x03 is found or we are way into the binary 2 x typical width
     // 900 should suffice to terminate ...
-    while (bytes[pos] != 0x03 && pos <= 1800) {
-      headerBuffer.append((char) bytes[pos]);
-      pos++;
+    Header.parseHeader(this, buffer);
+  }
+
+  /**
+   * read the header from the given stream - the stream is positioned at the
+   * start of the data afterwards
+   * 
+   * @param inputStream
+   * @throws Exception
+   */
+  public void readHeader(InputStream inputStream) throws Exception {
+    byte[] headerBytes = new byte[1801];
+    int pos = 0;
+    int b;
+    while ((b = inputStream.read()) != 0x03 && b != -1 && pos < 1800) {
+      headerBytes[pos++] = (byte) b;
     }
-    headerBuffer.append((char) bytes[pos]);
-    if (pos > 1799 || pos < 21) {
+    if (b == -1 || pos > 1799 || pos < 21) {
       throw new Exception("header length " + pos + " out of valid range");
     }
-    header = headerBuffer.toString();
-    this.parseHeader();
+    headerBytes[pos++] = (byte) b;
+    Header.parseHeader(this, ByteBuffer.wrap(headerBytes, 0, pos));
+  }
+
+  /**
+   * create a composite for the given file - plain files are memory mapped and
+   * decoded in place, gzipped files are decompressed while decoding
+   * 
+   * @param path
+   * @return - the composite
+   * @throws Throwable
+   */
+  public static Composite fromPath(Path path) throws Throwable {
+    return fromPath(path, false);
+  }
+
+  /**
+   * create a composite for the given file
+   * 
+   * @param path
+   * @param lazy
+   *          - if true defer parsing the data of plain files until first access
+   * @return - the composite
+   * @throws Throwable
+   */
+  public static Composite fromPath(Path path, boolean lazy) throws Throwable {
+    try (FileChannel channel = FileChannel.open(path,
+        StandardOpenOption.READ)) {
+      ByteBuffer magic = ByteBuffer.allocate(2);
+      channel.read(magic, 0);
+      if (magic.position() == 2 && CachedUrl.isGzip(magic.get(0), magic.get(1))) {
+        try (InputStream inputStream = Files.newInputStream(path)) {
+          return fromStream(inputStream);
+        }
+      }
+      MappedByteBuffer mapped = channel.map(MapMode.READ_ONLY, 0,
+          channel.size());
+      return fromByteBuffer(mapped, lazy);
+    }
+  }
+
+  /**
+   * create a composite from the given buffer starting at its current position
+   * - the data is decoded in place without copying the buffer
+   * 
+   * @param pBuffer
+   * @param lazy
+   *          - if true defer parsing the data until first access
+   * @return - the composite
+   * @throws Throwable
+   */
+  public static Composite fromByteBuffer(ByteBuffer pBuffer, boolean lazy)
+      throws Throwable {
+    Composite c = new Composite();
+    c.lazy = lazy;
+    c.read(pBuffer.slice());
+    c.init();
+    return c;
+  }
+
+  /**
+   * create a composite from the given (potentially zipped) stream by decoding
+   * the data row by row while reading
+   * 
+   * @param inputStream
+   * @return - the composite
+   * @throws Throwable
+   */
+  public static Composite fromStream(InputStream inputStream)
+      throws Throwable {
+    Composite c = new Composite();
+    c.decode(inputStream);
+    return c;
+  }
+
+  /**
+   * decode the header and the data from the given (potentially zipped) stream
+   * - the rows are decoded into the PlainData while reading so that no copy of
+   * the file content is kept
+   * 
+   * @param inputStream
+   * @throws Throwable
+   */
+  public void decode(InputStream inputStream) throws Throwable {
+    InputStream in = CachedUrl.unzip(inputStream);
+    readHeader(in);
+    Data.getInstance().parseData(this, in);
+    arrangeData();
+    calibrateProjection();
+    if (postInit != null) {
+      postInit.accept(this);
+    }
   }
 
   public void parseHeader() throws Exception {
@@ -404,7 +688,7 @@ public class Composite extends ProjectionImpl implements RadarImage,GeoProjectio
     pos = y * getDx() * 2 + x + ofs;
 */
     int pos = y * getDx() * length + x + ofs;
-    return bytes[pos];
+    return buffer.get(pos);
   }
 
   /**
@@ -415,33 +699,149 @@ public class Composite extends ProjectionImpl implements RadarImage,GeoProjectio
    * @return - the value
    */
   public float getValue(int x, int y) {
+    return getValue(0, x, y);
+  }
+
+  /**
+   * get the value at the given x,y coordinate of the given layer
+   * 
+   * @param z
+   *          - the layer
+   * @param x
+   * @param y
+   * @return - the value
+   */
+  public float getValue(int z, int x, int y) {
+    float[] data = data();
     float value = Float.NaN;
-    if (y >= 0 && y < PlainData.length)
-      if (x >= 0 && x < PlainData[y].length)
-        value = PlainData[y][x];
+    if (z >= 0 && z < Dz)
+      if (y >= 0 && y < Dy)
+        if (x >= 0 && x < Px)
+          value = data[getLayerOffset(z) + y * Px + x];
     return value;
   }
 
   /**
-   * set a data value
+   * get the plain data - parse it first if this is a lazy composite
+   * 
+   * @return - the plain data [y * Px + x]
+   */
+  public float[] getPlainData() {
+    return data();
+  }
+
+  /**
+   * get the number of data layers - 3D products like PZ and PU have multiple
+   * layers that are linked downwards in the plain data
+   * 
+   * @return the number of layers
+   */
+  public int getLayerCount() {
+    return Dz;
+  }
+
+  /**
+   * get the start of the given layer in the plain data
+   * 
+   * @param z
+   * @return the offset
+   */
+  public int getLayerOffset(int z) {
+    return dataOffset + z * Dy * Px;
+  }
+
+  /**
+   * get a view on the given layer that shares the plain data of this composite
+   * 
+   * @param z
+   *          - the layer
+   * @return the layer view
+   */
+  public CompositeLayer getLayer(int z) {
+    if (z < 0 || z >= Dz)
+      throw new IllegalArgumentException(
+          String.format("layer %d out of range 0-%d", z, Dz - 1));
+    return new CompositeLayer(this, z);
+  }
+
+  @Override
+  public float[] getRow(int y, float[] row) {
+    float[] data = data();
+    if (row == null || row.length < Px)
+      row = new float[Px];
+    if (y >= 0 && y < Dy)
+      System.arraycopy(data, dataOffset + y * Px, row, 0, Px);
+    else
+      Arrays.fill(row, 0, Px, Float.NaN);
+    return row;
+  }
+
+  @Override
+  public float[] getRegion(int x, int y, int width, int height,
+      float[] region) {
+    float[] data = data();
+    if (region == null || region.length < width * height)
+      region = new float[width * height];
+    // only the part of each row that is within the grid is copied
+    int from = Math.max(x, 0);
+    int to = Math.min(x + width, Px);
+    for (int ry = 0; ry < height; ry++) {
+      int gy = y + ry;
+      int ofs = ry * width;
+      Arrays.fill(region, ofs, ofs + width, Float.NaN);
+      if (gy >= 0 && gy < Dy && from < to)
+        System.arraycopy(data, dataOffset + gy * Px + from, region,
+            ofs + from - x,
+            to - from);
+    }
+    return region;
+  }
+
+  /**
+   * set a data value of the first layer
    * 
    * @param x
    * @param y
    * @param value
    */
   public void setValue(int x, int y, float value) {
-    if (y >= 0 && y < PlainData.length)
-      if (x >= 0 && x < PlainData[y].length) {
-        /*float oldvalue = PlainData[y][x];
-        if (oldvalue != 0f && value == oldvalue) {
-          throw new RuntimeException(
-              "" + x + "," + y + " already set to " + oldvalue);
-        }*/
-        PlainData[y][x] = value;
+    float[] data = data();
+    if (y >= 0 && y < Dy)
+      if (x >= 0 && x < Px) {
+        data[dataOffset + y * Px + x] = value;
         getStatistics().add(value);
       }
   }
 
+  /**
+   * set a value of the plain data - the y position spans all layers
+   * 
+   * @param x
+   * @param y
+   * @param value
+   */
+  public void setPlainValue(int x, int y, float value) {
+    if (y >= 0 && y < Py)
+      if (x >= 0 && x < Px) {
+        target()[y * Px + x] = value;
+        getStatistics().add(value);
+      }
+  }
+
+  /**
+   * recalculate the statistics from the PlainData in a single pass - the rows
+   * are visited in the order they appear in the binary data (vertically
+   * flipped) to give the same results as adding each value on setValue
+   */
+  public void updateStatistics() {
+    float[] data = target();
+    Statistics stats = getStatistics();
+    stats.clear();
+    for (int y = Py - 1; y >= 0; y--) {
+      stats.addAll(data, y * Px, Px);
+    }
+  }
+
   /**
    * get the value at the given coordinate
    * @param coord
@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package cs.fau.de.since.radolan;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+import com.bitplan.geo.ProjectionImpl;
+import com.bitplan.radolan.RadarImage;
+
+import cs.fau.de.since.radolan.Catalog.Unit;
+
+/**
+ * a single data layer of a composite - the layer is a view on the plain data
+ * of the composite and does not copy the values
+ *
+ * @author wf
+ *
+ */
+public class CompositeLayer extends ProjectionImpl implements RadarImage {
+  private Composite composite;
+  private int z;
+
+  /**
+   * construct me for the given composite and layer
+   *
+   * @param composite
+   * @param z
+   */
+  public CompositeLayer(Composite composite, int z) {
+    this.composite = composite;
+    this.z = z;
+    this.Dx = composite.getDx();
+    this.Dy = composite.getDy();
+    Translate.calibrateProjection(this);
+  }
+
+  public Composite getComposite() {
+    return composite;
+  }
+
+  public int getZ() {
+    return z;
+  }
+
+  @Override
+  public Unit getDataUnit() {
+    return composite.getDataUnit();
+  }
+
+  @Override
+  public Duration getInterval() {
+    return composite.getInterval();
+  }
+
+  @Override
+  public float getValue(int x, int y) {
+    return composite.getValue(z, x, y);
+  }
+
+  @Override
+  public float[] getRow(int y, float[] row) {
+    float[] data = composite.getPlainData();
+    int width = composite.getPx();
+    if (row == null || row.length < width)
+      row = new float[width];
+    if (y >= 0 && y < Dy)
+      System.arraycopy(data, composite.getLayerOffset(z) + y * width, row, 0,
+          width);
+    else
+      Arrays.fill(row, 0, width, Float.NaN);
+    return row;
+  }
+}
@@ -23,8 +23,10 @@
  */
 package cs.fau.de.since.radolan;
 
+import java.io.InputStream;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 
 /**
@@ -36,6 +38,22 @@ public class Data {
     runlength, littleEndian, singleByte, unknown
   };
 
+  // opt-in: decode the rows of large grids in parallel
+  public static boolean parallelDecode = false;
+  // grids with fewer values - e.g. the 900x900 national grid - are always
+  // decoded sequentially
+  public static int parallelThreshold = 1000 * 1000;
+
+  private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+  public ForkJoinPool getPool() {
+    return pool;
+  }
+
+  public void setPool(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
   Map<Encoding, Consumer<Composite>> parseMap = new HashMap<Encoding, Consumer<Composite>>();
 
   public Data() {
@@ -61,6 +79,14 @@ public class Data {
     }
   }
 
+  // isParallel checks whether the data of the given composite is to be decoded
+  // by the ParallelDecoder
+  public boolean isParallel(Composite c, Encoding encoding) {
+    return parallelDecode && c.buffer != null
+        && ParallelDecoder.supports(encoding)
+        && c.getPx() * c.getPy() >= parallelThreshold;
+  }
+
   // parseData parses the composite data and writes the related fields.
   // This method requires header data to be already written.
   public void parseData(Composite c) throws Throwable {
@@ -69,25 +95,73 @@ public class Data {
       return;
     }
 
-    // create Data fields
-    c.PlainData = new float[c.getPy()][c.getPx()];
-    for (int i = 0; i < c.PlainData.length; i++) {
-      c.PlainData[i] = new float[c.getPx()];
+    // decode into a new grid that is only published when the decode succeeded
+    float[] data = new float[c.getPy() * c.getPx()];
+    c.error = null;
+    c.decoding = data;
+    try {
+      Encoding encoding = identifyEncoding(c);
+      if (isParallel(c, encoding)) {
+        ParallelDecoder.parse(c, encoding, pool);
+      } else {
+        Consumer<Composite> parser = parseMap.get(encoding);
+        if (parser != null)
+          parser.accept(c); // parse with the given encoding
+        else
+          c.error = new Exception("no parser for encoding " + encoding);
+      }
+      if (c.error != null)
+        throw c.error;
+    } finally {
+      c.decoding = null;
     }
-    Encoding encoding = identifyEncoding(c);
-    Consumer<Composite> parser = parseMap.get(encoding);
-    if (parser != null) {
-      parser.accept(c); // parse with the given encoding
-      if (c.error!=null)
+    c.PlainData = data;
+  }
+
+  // parseData parses the composite data from the given stream which is
+  // positioned after the header - each row is decoded while reading so that
+  // no copy of the binary section is needed
+  public void parseData(Composite c, InputStream inputStream)
+      throws Throwable {
+    if (c.getPx() == 0 || c.getPy() == 0) {
+      throw new Exception("parseData - parsed header data required");
+    }
+    float[] data = new float[c.getPy() * c.getPx()];
+    c.decoding = data;
+    try {
+      Encoding encoding = identifyEncoding(c);
+      switch (encoding) {
+      case littleEndian:
+        LittleEndian.parseLittleEndian(c, inputStream);
+        break;
+      case singleByte:
+        SingleByte.parseSingleByte(c, inputStream);
+        break;
+      case runlength:
+        RunLength.parseRunlength(c, inputStream);
+        break;
+      default:
+        parseUnknown(c);
         throw c.error;
-    } else
-      c.error = new Exception("no parser for encoding " + encoding);
+      }
+    } finally {
+      c.decoding = null;
+    }
+    c.PlainData = data;
   }
 
   // arrangeData slices plain data into its data layers or strips preceeding
-  // vertical projection
+  // vertical projection - the layers are views on the plain data so only
+  // the layer count and the offset of the first layer are set
   public void arrangeData(Composite c) {
-    // FIXME - needs to be implemented
+    if (c.getDy() == 0 || c.getPy() % c.getDy() == 0) {
+      // multiple layers are linked downwards
+      c.setDz(c.getDy() == 0 ? 1 : Math.max(1, c.getPy() / c.getDy()));
+      c.setDataOffset(0);
+    } else { // only use bottom most part of plain data
+      c.setDz(1);
+      c.setDataOffset((c.getPy() - c.getDy()) * c.getPx()); // strip elevation
+    }
     /*
      * if c.Py%c.Dy == 0 { // multiple layers are linked downwards
      * c.DataZ = make([][][]float32, c.Py/c.Dy)
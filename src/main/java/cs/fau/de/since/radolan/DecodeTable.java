@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package cs.fau.de.since.radolan;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import cs.fau.de.since.radolan.Catalog.Unit;
+
+/**
+ * precomputed rvp-6 values for all possible raw values of the single byte and
+ * little endian encodings - tables are shared between all composites with the
+ * same precision and data unit
+ *
+ * @author wf
+ *
+ */
+public class DecodeTable {
+  private int precision;
+  private Unit unit;
+  // indexed by the unsigned byte value
+  private float[] singleByte = new float[256];
+  // indexed by (high & 0xff) << 8 | (low & 0xff)
+  private float[] littleEndian = new float[256 * 256];
+
+  private static Map<String, DecodeTable> tables = new HashMap<String, DecodeTable>();
+
+  public int getPrecision() {
+    return precision;
+  }
+
+  public Unit getUnit() {
+    return unit;
+  }
+
+  public float[] getSingleByte() {
+    return singleByte;
+  }
+
+  public float[] getLittleEndian() {
+    return littleEndian;
+  }
+
+  /**
+   * construct me for the given precision and unit
+   *
+   * @param precision
+   * @param unit
+   */
+  private DecodeTable(int precision, Unit unit) {
+    this.precision = precision;
+    this.unit = unit;
+    double precisionFactor = Math.pow(10, precision);
+    for (int value = 0; value < singleByte.length; value++) {
+      singleByte[value] = rvp6SingleByte(value, precisionFactor);
+    }
+    for (int high = 0; high < 256; high++) {
+      for (int low = 0; low < 256; low++) {
+        littleEndian[high << 8 | low] = rvp6LittleEndian(low, high,
+            precisionFactor);
+      }
+    }
+  }
+
+  /**
+   * check whether this table fits the given precision and unit
+   *
+   * @param pPrecision
+   * @param pUnit
+   * @return true if the table may be used
+   */
+  public boolean matches(int pPrecision, Unit pUnit) {
+    return precision == pPrecision && unit == pUnit;
+  }
+
+  // rvp6SingleByte converts the unsigned raw byte value of single byte encoded
+  // products - see SingleByte
+  private float rvp6SingleByte(int value, double precisionFactor) {
+    if (value == 250) { // error code: no-data
+      return Float.NaN;
+    }
+    float conv = (float) (value * precisionFactor); // set decimal point
+    if (unit != Unit.Unit_dBZ) {
+      return conv;
+    }
+    return Conversion.toDBZ(conv);
+  }
+
+  // rvp6LittleEndian converts the unsigned low and high byte of little endian
+  // encoded products - see LittleEndian
+  private float rvp6LittleEndian(int low, int high, double precisionFactor) {
+    int value = ((0x0F & high) << 8) | low;
+    if ((high & (1 << 5)) != 0) { // error code: no-data
+      return Float.NaN;
+    }
+    if ((high & (1 << 6)) != 0) { // flag: negative value
+      value *= -1;
+    }
+    float conv = (float) (value * precisionFactor); // set decimal point
+    if (unit != Unit.Unit_dBZ) {
+      return conv;
+    }
+    return Conversion.toDBZ(conv);
+  }
+
+  /**
+   * get the shared decode table for the given precision and unit
+   *
+   * @param precision
+   * @param unit
+   * @return - the decode table
+   */
+  public static synchronized DecodeTable getTable(int precision, Unit unit) {
+    String key = precision + "/" + unit;
+    DecodeTable table = tables.get(key);
+    if (table == null) {
+      table = new DecodeTable(precision, unit);
+      tables.put(key, table);
+    }
+    return table;
+  }
+}
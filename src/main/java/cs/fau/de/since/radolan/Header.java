@@ -23,15 +23,17 @@
  */
 package cs.fau.de.since.radolan;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
 import java.util.Map;
 
 import cs.fau.de.since.radolan.Catalog.Spec;
 import cs.fau.de.since.radolan.Catalog.Unit;
+import cs.fau.de.since.radolan.HeaderRecord.Field;
 
 /**
  * migrated to Java from
@@ -43,6 +45,7 @@ import cs.fau.de.since.radolan.Catalog.Unit;
 public class Header {
   // splitHeader splits the given header string into its fields. The returned
   // map is using the field name as key and the field content as value.
+  // parseHeader does not need the map any more - see HeaderRecord
   public static Map<String, String> splitHeader(String header) {
     Map<String, String> m = new HashMap<String, String>();
     int beginKey = 0;
@@ -78,60 +81,123 @@ public class Header {
     return m;
   }
 
+  // the record is reused for all headers parsed by the same thread
+  private static final ThreadLocal<HeaderRecord> RECORD = ThreadLocal
+      .withInitial(HeaderRecord::new);
+  // product names by their two characters
+  private static final String[] PRODUCTS = new String[128 * 128];
+
+  /**
+   * scan the header at the start of the given buffer
+   * 
+   * @param buffer
+   * @return the record of this thread filled with the field positions
+   * @throws Exception
+   */
+  public static HeaderRecord scan(ByteBuffer buffer) throws Exception {
+    return RECORD.get().scan(buffer);
+  }
+
   // parseHeader parses and the composite header and writes the related fields
   // as described in [1] and [3].
   public static void parseHeader(Composite c) throws Exception {
-    // Split header segments
-    Map<String, String> section = splitHeader(c.header); // without delimiter
+    ByteBuffer buffer = c.buffer;
+    if (buffer == null) {
+      buffer = ByteBuffer
+          .wrap(c.header.getBytes(StandardCharsets.ISO_8859_1));
+    }
+    HeaderRecord record = scan(buffer);
+    try {
+      parseHeader(c, record);
+    } finally {
+      record.clear();
+    }
+  }
 
+  /**
+   * scan and parse the header at the start of the given buffer and set it as
+   * the header of the given composite - the record of this thread does not
+   * keep the buffer afterwards
+   * 
+   * @param c
+   * @param buffer
+   * @throws Exception
+   */
+  public static void parseHeader(Composite c, ByteBuffer buffer)
+      throws Exception {
+    HeaderRecord record = scan(buffer);
+    try {
+      c.header = record.getHeader();
+      parseHeader(c, record);
+    } finally {
+      record.clear();
+    }
+  }
+
+  /**
+   * get the product name for the first two characters of the header
+   * 
+   * @param r
+   * @return the - shared - product name
+   */
+  private static String getProduct(HeaderRecord r) {
+    char c0 = r.charAt(0);
+    char c1 = r.charAt(1);
+    if (c0 >= 128 || c1 >= 128) {
+      return r.toString(0, 2);
+    }
+    int index = c0 * 128 + c1;
+    String product = PRODUCTS[index];
+    if (product == null) {
+      product = r.toString(0, 2);
+      PRODUCTS[index] = product;
+    }
+    return product;
+  }
+
+  /**
+   * parse the header fields from the given scanned record
+   * 
+   * @param c
+   * @param r
+   * @throws Exception
+   */
+  public static void parseHeader(Composite c, HeaderRecord r)
+      throws Exception {
     // Parse Product - Example: "PG" or "FZ"
-    c.setProduct(c.header.substring(0, 2));
+    c.setProduct(getProduct(r));
 
     // Lookup Unit
     c.setDataUnit(Unit.Unit_unknown);
     Catalog catalog = Catalog.getInstance();
-    if (catalog.unitCatalog.containsKey(c.getProduct())) {
-      c.setDataUnit(catalog.unitCatalog.get(c.getProduct()));
+    Unit unit = catalog.unitCatalog.get(c.getProduct());
+    if (unit != null) {
+      c.setDataUnit(unit);
     }
 
     // Parse DataLength - Example: "BY 405160"
-    String dataLengthStr = section.get("BY");
-    if (dataLengthStr == null) {
+    if (!r.has(Field.BY)) {
       throw new Exception("parseHeader: missing dataLength/BY ######");
     }
-    c.setDataLength(Integer.parseInt(dataLengthStr.trim()));
-    c.setDataLength(c.getDataLength() - c.header.length()); // remove header length including
-                                       // delimiter
+    // remove header length including delimiter
+    c.setDataLength(r.getInt(Field.BY) - r.getLength());
+
     // Parse CaptureTime - Example: "PG262115100000616" or
-    // "FZ211615100000716"
-    String dateStr = c.header.substring(2, 8) + c.header.substring(13, 17); // cut
-                                                                            // WMO
-                                                                            // number
-    DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("ddHHmmMMyy");
-    c.CaptureTime = ZonedDateTime.parse(dateStr,
-        dateFormatter.withZone(ZoneId.of("Z")));
-    /*
-     * if err != nil {
-     * return newError("parseHeader",
-     * "could not parse capture time: "+err.Error())
-     * }
-     */
+    // "FZ211615100000716" - ddHHmm followed by the WMO number and MMyy
+    c.CaptureTime = ZonedDateTime.of(2000 + r.getInt(15, 17),
+        r.getInt(13, 15), r.getInt(2, 4), r.getInt(4, 6), r.getInt(6, 8), 0, 0,
+        ZoneOffset.UTC);
     // Parse ForecastTime - Example: "VV 005"
-    String vv = section.get("VV");
-
-    c.setForecastTime(c.CaptureTime);
     int min = 0;
-    if (vv != null) {
-      min = Integer.parseInt(vv.trim());
+    if (r.has(Field.VV)) {
+      min = r.getInt(Field.VV);
     }
-
-    c.setForecastTime(c.CaptureTime.plus(Duration.ofMinutes(min)));
+    c.setForecastTime(c.CaptureTime.plusMinutes(min));
 
     // Parse Interval - Example "INT 5" or "INT1008"
-    String intv = section.get("INT");
     min = 0;
-    if (intv != null) {
-      min = Integer.parseInt(intv.trim());
+    if (r.has(Field.INT)) {
+      min = r.getInt(Field.INT);
     }
 
     c.Interval = Duration.ofMinutes(min);
@@ -146,60 +212,58 @@ public class Header {
 
     // Parse Dimensions - Example: "GP 450x 450" or "BG460460" or
     // "GP 1500x1400" (if defined)
-
-    String dim = section.get("GP");
-    if (dim != null) {
-      String[] parts = dim.split("x");
+    if (r.has(Field.GP)) {
+      int x = r.indexOf(Field.GP, 'x');
+      if (x < 0) {
+        throw new Exception("parseHeader: invalid dimension format");
+      }
       /* FIXED: Wrong assignment of X/Y */
-      c.setDy(Integer.parseInt(parts[0].trim()));
-      c.setDx(Integer.parseInt(parts[1].trim()));
+      c.setDy(r.getInt(r.begin(Field.GP), x));
+      c.setDx(r.getInt(x + 1, r.end(Field.GP)));
       c.setPx(c.getDx());
       c.setPy(c.getDy()); // composite formats do not show elevation
-    } else {
-      dim = section.get("BG");
-      Spec v;
-      if (dim != null) {
-        c.setDy(Integer.parseInt(dim.substring(0, 3)));
-        c.setDx(Integer.parseInt(dim.substring(3, 6)));
-        c.setPx(c.getDx());
-        c.setPy(c.getDy()); // composite formats do not show elevation
-      } else { // dimensions of local picture products not defined in header
-        v = catalog.dimensionCatalog.get(c.getProduct());
-        if (v == null) {
-          throw new Exception(
-              "parseHeader: no dimension information available");
-        }
-        c.setPx(v.px);
-        c.setPy(v.py); // plain data dimensions
-        c.setDx(v.dx);
-        c.setDy(v.dy); // data layer dimensions
-        c.setResX(v.rx);
-        c.setResY(v.ry); // data resolution
+    } else if (r.has(Field.BG)) {
+      int bg = r.begin(Field.BG);
+      c.setDy(r.getInt(bg, bg + 3));
+      c.setDx(r.getInt(bg + 3, bg + 6));
+      c.setPx(c.getDx());
+      c.setPy(c.getDy()); // composite formats do not show elevation
+    } else { // dimensions of local picture products not defined in header
+      Spec v = catalog.dimensionCatalog.get(c.getProduct());
+      if (v == null) {
+        throw new Exception("parseHeader: no dimension information available");
       }
+      c.setPx(v.px);
+      c.setPy(v.py); // plain data dimensions
+      c.setDx(v.dx);
+      c.setDy(v.dy); // data layer dimensions
+      c.setResX(v.rx);
+      c.setResY(v.ry); // data resolution
     }
 
     // Parse Precision - Example: "PR E-01" or "PR E+00"
-    String prec = section.get("E");
-    if (prec != null) {
-      c.setPrecision(Integer.parseInt(prec));
+    if (r.has(Field.E)) {
+      c.setPrecision(r.getInt(Field.E));
     }
 
     // Parse Level - Example "LV 6 1.0 19.0 28.0 37.0 46.0 55.0"
     // or "LV12-31.5-24.5-17.5-10.5 -5.5 -1.0 1.0 5.5 10.5 17.5 24.5 31.5"
-    String lv = section.get("LV");
-    if (lv != null) {
-      if (lv.length() < 2) {
+    if (r.has(Field.LV)) {
+      int lv = r.begin(Field.LV);
+      int len = r.end(Field.LV) - lv;
+      if (len < 2) {
         throw new Exception("parseHeader: level field too short");
       }
-      int cnt = Integer.parseInt(lv.substring(0, 2).trim());
-      if (lv.length() != cnt * 5 + 2) { // fortran format I2 + F5.1
-        throw new Exception("parseHeader: invalid level format: " + lv);
+      int cnt = r.getInt(lv, lv + 2);
+      if (len != cnt * 5 + 2) { // fortran format I2 + F5.1
+        throw new Exception("parseHeader: invalid level format: "
+            + r.toString(lv, lv + len));
       }
 
       c.level = new float[cnt];
       for (int i = 0; i < cnt; i++) {
-        int n = i * 5;
-        c.level[i] = Float.parseFloat(lv.substring(n + 2, n + 7));
+        int n = lv + 2 + i * 5;
+        c.level[i] = r.getFloat(n, n + 5);
       }
     }
   }
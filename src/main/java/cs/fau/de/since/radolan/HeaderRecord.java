@@ -0,0 +1,315 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package cs.fau.de.since.radolan;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * reusable record of the field positions of a composite header - the header
+ * bytes are scanned once and the values are parsed directly from the buffer
+ * without splitting the header into strings
+ *
+ * @author wf
+ *
+ */
+public class HeaderRecord {
+  /**
+   * the header fields needed by Header.parseHeader
+   */
+  public enum Field {
+    BY, VV, INT, GP, BG, E, LV
+  }
+
+  private static final Field[] FIELDS = Field.values();
+  private static final float[] POW10 = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f,
+      1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
+
+  private ByteBuffer source;
+  // header length including the 0x03 delimiter
+  private int length;
+  private int[] begin = new int[FIELDS.length];
+  private int[] end = new int[FIELDS.length];
+
+  public ByteBuffer getSource() {
+    return source;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * scan the header at the start of the given buffer - this follows the same
+   * rules as Header.splitHeader: a field name is a sequence of upper case
+   * letters, the field value is everything up to the next field name
+   *
+   * @param buffer
+   * @return - this record
+   * @throws Exception
+   *           - if the header delimiter is not found in the valid range
+   */
+  public HeaderRecord scan(ByteBuffer buffer) throws Exception {
+    source = buffer;
+    length = 0;
+    for (int i = 0; i < FIELDS.length; i++) {
+      begin[i] = -1;
+      end[i] = -1;
+    }
+    int limit = Math.min(buffer.limit(), 1801);
+    int beginKey = 0;
+    int endKey = 0;
+    int beginValue = 0;
+    boolean dispatch = false;
+    boolean keys = true;
+    int pos = 0;
+    for (; pos < limit; pos++) {
+      byte b = buffer.get(pos);
+      if (b == 0x03)
+        break;
+      if (b >= 'A' && b <= 'Z') {
+        if (dispatch) {
+          if (keys)
+            put(beginKey, endKey, beginValue, pos);
+          beginKey = pos;
+          dispatch = false;
+        }
+        endKey = pos + 1;
+      } else {
+        if (pos == 0) {
+          keys = false; // no key prefixing value
+        }
+        if (!dispatch) {
+          beginValue = pos;
+          dispatch = true;
+        }
+      }
+    }
+    if (pos == limit || pos > 1799 || pos < 21) {
+      throw new Exception("header length " + pos + " out of valid range");
+    }
+    if (keys && dispatch)
+      put(beginKey, endKey, beginValue, pos);
+    length = pos + 1;
+    return this;
+  }
+
+  /**
+   * remember the value position of the field with the given name - later
+   * occurences of the same field win
+   *
+   * @param beginKey
+   * @param endKey
+   * @param beginValue
+   * @param endValue
+   */
+  private void put(int beginKey, int endKey, int beginValue, int endValue) {
+    for (int i = 0; i < FIELDS.length; i++) {
+      if (isKey(FIELDS[i].name(), beginKey, endKey)) {
+        begin[i] = beginValue;
+        end[i] = endValue;
+        return;
+      }
+    }
+  }
+
+  private boolean isKey(String name, int beginKey, int endKey) {
+    if (endKey - beginKey != name.length())
+      return false;
+    for (int i = 0; i < name.length(); i++) {
+      if (source.get(beginKey + i) != name.charAt(i))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * release the scanned buffer so that a reused record does not keep the
+   * content of a composite reachable
+   */
+  public void clear() {
+    source = null;
+  }
+
+  /**
+   * @param field
+   * @return true if the field is in the header
+   */
+  public boolean has(Field field) {
+    return begin[field.ordinal()] >= 0;
+  }
+
+  public int begin(Field field) {
+    return begin[field.ordinal()];
+  }
+
+  public int end(Field field) {
+    return end[field.ordinal()];
+  }
+
+  /**
+   * get the byte at the given header position
+   *
+   * @param pos
+   * @return the character
+   */
+  public char charAt(int pos) {
+    return (char) (source.get(pos) & 0xFF);
+  }
+
+  /**
+   * find the given character in the value of the given field
+   *
+   * @param field
+   * @param ch
+   * @return the position or -1 if not found
+   */
+  public int indexOf(Field field, char ch) {
+    for (int pos = begin(field); pos < end(field); pos++) {
+      if (charAt(pos) == ch)
+        return pos;
+    }
+    return -1;
+  }
+
+  /**
+   * get the trimmed integer value of the given field
+   *
+   * @param field
+   * @return the value
+   */
+  public int getInt(Field field) {
+    return getInt(begin(field), end(field));
+  }
+
+  /**
+   * parse the integer between the given positions ignoring surrounding blanks
+   *
+   * @param from
+   *          - inclusive
+   * @param to
+   *          - exclusive
+   * @return the value
+   */
+  public int getInt(int from, int to) {
+    while (from < to && charAt(from) <= ' ')
+      from++;
+    while (to > from && charAt(to - 1) <= ' ')
+      to--;
+    int pos = from;
+    boolean negative = false;
+    if (pos < to && (charAt(pos) == '-' || charAt(pos) == '+')) {
+      negative = charAt(pos) == '-';
+      pos++;
+    }
+    if (pos == to || to - pos > 9)
+      throw invalidNumber(from, to);
+    int value = 0;
+    for (; pos < to; pos++) {
+      int digit = charAt(pos) - '0';
+      if (digit < 0 || digit > 9)
+        throw invalidNumber(from, to);
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * parse the float between the given positions ignoring surrounding blanks -
+   * gives the same result as Float.parseFloat for the fixed point values of
+   * the header
+   *
+   * @param from
+   *          - inclusive
+   * @param to
+   *          - exclusive
+   * @return the value
+   */
+  public float getFloat(int from, int to) {
+    while (from < to && charAt(from) <= ' ')
+      from++;
+    while (to > from && charAt(to - 1) <= ' ')
+      to--;
+    int pos = from;
+    boolean negative = false;
+    if (pos < to && (charAt(pos) == '-' || charAt(pos) == '+')) {
+      negative = charAt(pos) == '-';
+      pos++;
+    }
+    int mantissa = 0;
+    int digits = 0;
+    int decimals = -1;
+    for (; pos < to; pos++) {
+      char ch = charAt(pos);
+      if (ch == '.' && decimals < 0) {
+        decimals = 0;
+      } else if (ch >= '0' && ch <= '9' && digits < 7) {
+        mantissa = mantissa * 10 + (ch - '0');
+        digits++;
+        if (decimals >= 0)
+          decimals++;
+      } else {
+        // exponents, long mantissas and errors are left to the JDK
+        return Float.parseFloat(toString(from, to));
+      }
+    }
+    if (digits == 0)
+      throw invalidNumber(from, to);
+    // both operands are exact so the division is correctly rounded
+    float value = decimals > 0 ? mantissa / POW10[decimals] : mantissa;
+    return negative ? -value : value;
+  }
+
+  private NumberFormatException invalidNumber(int from, int to) {
+    return new NumberFormatException(
+        "For input string: \"" + toString(from, to) + "\"");
+  }
+
+  /**
+   * get the text between the given positions
+   *
+   * @param from
+   * @param to
+   * @return the text
+   */
+  public String toString(int from, int to) {
+    byte[] text = new byte[to - from];
+    for (int i = 0; i < text.length; i++)
+      text[i] = source.get(from + i);
+    return new String(text, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * get the header text including the delimiter
+   *
+   * @return the header
+   */
+  public String getHeader() {
+    if (source.hasArray()) {
+      return new String(source.array(), source.arrayOffset(), length,
+          StandardCharsets.ISO_8859_1);
+    }
+    return toString(0, length);
+  }
+}
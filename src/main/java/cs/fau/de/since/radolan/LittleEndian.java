@@ -23,9 +23,9 @@
  */
 package cs.fau.de.since.radolan;
 
-import com.sun.media.jfxmedia.logging.Logger;
-
-import cs.fau.de.since.radolan.Catalog.Unit;
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * migrated to Java from
@@ -36,17 +36,24 @@ import cs.fau.de.since.radolan.Catalog.Unit;
  */
 public class LittleEndian {
 
+  // decode whole rows directly from the byte array instead of going
+  // through getByte/setValue for every pixel
+  public static boolean bulkDecode = true;
+
   // parseLittleEndian parses the little endian encoded composite as described
   // in [1] and [3].
-  // Result are written into the previously created PlainData field of the
-  // composite.
+  // Result are written into the grid being decoded of the composite.
   public static void parseLittleEndian(Composite c) {
-    int last = c.PlainData.length - 1;
-    for (int y = 0; y < c.PlainData.length; y++) {
+    if (bulkDecode) {
+      parseLittleEndianBulk(c);
+      return;
+    }
+    int last = c.getPy() - 1;
+    for (int y = 0; y < c.getPy(); y++) {
       byte[] yline = readRowLittleEndian(c, y);
       try {
         int yt = last - y; // write vertically flipped
-        int yw = c.PlainData[last - y].length;
+        int yw = c.getPx();
         decodeYLineLittleEndian(c, yt, yw, yline);
       } catch (Exception e) {
         c.error = e;
@@ -55,6 +62,96 @@ public class LittleEndian {
     }
   }
 
+  /**
+   * parse the little endian encoded composite by reading the data section
+   * straight from the byte array with precomputed row offsets - the statistics
+   * are computed in a single pass after all rows have been decoded
+   * 
+   * @param c
+   *          - the composite to parse
+   */
+  public static void parseLittleEndianBulk(Composite c) {
+    int last = c.getPy() - 1;
+    int width = c.getPx();
+    int rowLength = c.getDx() * 2;
+    int ofs = c.header.length();
+    ByteBuffer buffer = c.buffer;
+    float[] data = c.decoding;
+    float[] table = c.getDecodeTable().getLittleEndian();
+    if (width * 2 != rowLength) {
+      c.error = new Exception(String.format(
+          "decodeLittleEndian destination size %d and source size %d are not even or equal",
+          width, rowLength));
+      return;
+    }
+    if (ofs + rowLength * c.getPy() > buffer.limit()) {
+      c.error = new Exception(String.format(
+          "parseLittleEndianBulk data section of %d bytes is too short for %d rows of %d bytes",
+          buffer.limit() - ofs, c.getPy(), rowLength));
+      return;
+    }
+    for (int y = 0; y < c.getPy(); y++) {
+      // write vertically flipped
+      decodeRow(buffer, ofs + y * rowLength, data, (last - y) * width, width,
+          table);
+    }
+    c.updateStatistics();
+  }
+
+  /**
+   * parse the little endian encoded data from the given stream row by row
+   * 
+   * @param c
+   *          - the composite with the parsed header
+   * @param inputStream
+   *          - the stream positioned at the start of the data
+   * @throws Exception
+   */
+  public static void parseLittleEndian(Composite c, InputStream inputStream)
+      throws Exception {
+    int last = c.getPy() - 1;
+    int width = c.getPx();
+    int rowLength = c.getDx() * 2;
+    if (width * 2 != rowLength) {
+      throw new Exception(String.format(
+          "decodeLittleEndian destination size %d and source size %d are not even or equal",
+          width, rowLength));
+    }
+    float[] table = c.getDecodeTable().getLittleEndian();
+    byte[] row = new byte[rowLength];
+    ByteBuffer rowBuffer = ByteBuffer.wrap(row);
+    DataInputStream dataStream = new DataInputStream(inputStream);
+    for (int y = 0; y < c.getPy(); y++) {
+      dataStream.readFully(row);
+      decodeRow(rowBuffer, 0, c.decoding, (last - y) * width, width, table);
+    }
+    c.updateStatistics();
+  }
+
+  /**
+   * decode a row of little endian encoded values
+   * 
+   * @param src
+   *          - the source buffer
+   * @param pos
+   *          - the position of the row in the source
+   * @param dst
+   *          - the destination
+   * @param dstOffset
+   *          - the position of the row in the destination
+   * @param width
+   *          - the number of values to decode
+   * @param table
+   *          - the little endian decode table
+   */
+  public static void decodeRow(ByteBuffer src, int pos, float[] dst,
+      int dstOffset, int width, float[] table) {
+    for (int x = 0; x < width; x++, pos += 2) {
+      dst[dstOffset + x] = table[(src.get(pos + 1) & 0xFF) << 8
+          | (src.get(pos) & 0xFF)];
+    }
+  }
+
   /**
    * readLineLittleEndian reads a row at the given y position This method is
    * used to get a y-row of little endian encoded data.
@@ -84,7 +181,7 @@ public class LittleEndian {
     }
     for (int x = 0; x < xw; x++) {
       float value = rvp6LittleEndian(c, line[2 * x ], line[2 * x+1]);
-      c.setValue(x, y, value);
+      c.setPlainValue(x, y, value);
     }
   }
 
@@ -93,30 +190,14 @@ public class LittleEndian {
   // to radar video processor values (rvp-6). NaN may be returned when the
   // no-data flag is set.
   public static float rvp6LittleEndian(Composite c, byte... tuple) {
-    // https://stackoverflow.com/questions/3842828/converting-little-endian-to-big-endian
-
-    int value = 0x0F & tuple[1];
-    value = (value << 8) | (tuple[0] & 0xFF);
-
-    if ((tuple[1] & (1 << 5)) != 0) { // error code: no-data
-      return Float.NaN;
-    }
-
-    if ((tuple[1] & (1 << 6)) != 0) { // flag: negative value
-      value *= -1;
-    }
-
-    float conv = (float) c.rvp6Raw(value); // set decimal point
-
-    // little endian encoded formats are also used for mm/h
-    if (c.getDataUnit() != Unit.Unit_dBZ) {
-      return conv;
-    }
+    return rvp6LittleEndian(c, tuple[0], tuple[1]);
+  }
 
-    // Even though this format supports negative values and custom
-    // precision they do not make use of this and we still have to subtract
-    // the bias and scale it (RADVOR FX, dBZ)
-    return Conversion.toDBZ(conv);
+  // rvp6LittleEndian converts the given low and high byte of a little endian
+  // encoded value by looking it up in the decode table of the composite
+  public static float rvp6LittleEndian(Composite c, byte low, byte high) {
+    return c.getDecodeTable().getLittleEndian()[(high & 0xFF) << 8
+        | (low & 0xFF)];
   }
 
 }
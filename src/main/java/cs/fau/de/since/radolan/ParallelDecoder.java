@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package cs.fau.de.since.radolan;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.bitplan.radolan.Statistics;
+
+import cs.fau.de.since.radolan.Data.Encoding;
+
+/**
+ * decode the rows of little endian and single byte encoded composites in
+ * parallel - each row of the vertically flipped output is independent so the
+ * rows are split across a ForkJoin pool and the statistics of the parts are
+ * merged at the end
+ *
+ * @author wf
+ *
+ */
+public class ParallelDecoder {
+  // number of rows that are decoded by a single task
+  public static int rowsPerTask = 64;
+
+  /**
+   * task decoding a range of rows and returning the statistics of these rows
+   */
+  static class RowTask extends RecursiveTask<Statistics> {
+    private static final long serialVersionUID = 1L;
+    final Encoding encoding;
+    final ByteBuffer buffer;
+    final int ofs;
+    final float[] data;
+    final float[] table;
+    final int width;
+    final int height;
+    final int fromRow;
+    final int toRow;
+
+    RowTask(Encoding encoding, ByteBuffer buffer, int ofs, float[] data,
+        float[] table, int width, int height, int fromRow, int toRow) {
+      this.encoding = encoding;
+      this.buffer = buffer;
+      this.ofs = ofs;
+      this.data = data;
+      this.table = table;
+      this.width = width;
+      this.height = height;
+      this.fromRow = fromRow;
+      this.toRow = toRow;
+    }
+
+    @Override
+    protected Statistics compute() {
+      if (toRow - fromRow > rowsPerTask) {
+        int mid = (fromRow + toRow) >>> 1;
+        RowTask upper = new RowTask(encoding, buffer, ofs, data, table, width,
+            height, mid, toRow);
+        upper.fork();
+        Statistics stats = new RowTask(encoding, buffer, ofs, data, table,
+            width, height, fromRow, mid).compute();
+        stats.merge(upper.join());
+        return stats;
+      }
+      Statistics stats = new Statistics();
+      int last = height - 1;
+      for (int y = fromRow; y < toRow; y++) {
+        // write vertically flipped
+        int dstOffset = (last - y) * width;
+        if (encoding == Encoding.littleEndian) {
+          LittleEndian.decodeRow(buffer, ofs + y * width * 2, data, dstOffset,
+              width, table);
+        } else {
+          SingleByte.decodeRow(buffer, ofs + y * width, data, dstOffset, width,
+              table);
+        }
+        stats.addAll(data, dstOffset, width);
+      }
+      return stats;
+    }
+  }
+
+  /**
+   * check whether the given encoding can be decoded in parallel
+   *
+   * @param encoding
+   * @return true if the rows of the encoding are independent
+   */
+  public static boolean supports(Encoding encoding) {
+    return encoding == Encoding.littleEndian
+        || encoding == Encoding.singleByte;
+  }
+
+  /**
+   * decode the data of the given composite into the grid being decoded using the given
+   * pool
+   *
+   * @param c
+   *          - the composite with the parsed header
+   * @param encoding
+   *          - littleEndian or singleByte
+   * @param pool
+   *          - the pool to use
+   */
+  public static void parse(Composite c, Encoding encoding, ForkJoinPool pool) {
+    int width = c.getPx();
+    int bytesPerValue = encoding == Encoding.littleEndian ? 2 : 1;
+    int rowLength = c.getDx() * bytesPerValue;
+    int ofs = c.header.length();
+    if (width * bytesPerValue != rowLength) {
+      c.error = new Exception(String.format(
+          "parallel decode destination size %d and source size %d are not even or equal",
+          width, rowLength));
+      return;
+    }
+    if (ofs + rowLength * c.getPy() > c.buffer.limit()) {
+      c.error = new Exception(String.format(
+          "parallel decode data section of %d bytes is too short for %d rows of %d bytes",
+          c.buffer.limit() - ofs, c.getPy(), rowLength));
+      return;
+    }
+    DecodeTable decodeTable = c.getDecodeTable();
+    float[] table = encoding == Encoding.littleEndian
+        ? decodeTable.getLittleEndian()
+        : decodeTable.getSingleByte();
+    // absolute gets only - the buffer may be shared between the tasks
+    RowTask task = new RowTask(encoding, c.buffer, ofs, c.decoding, table,
+        width, c.getPy(), 0, c.getPy());
+    Statistics stats = pool.invoke(task);
+    c.getStatistics().clear();
+    c.getStatistics().merge(stats);
+  }
+}
@@ -0,0 +1,261 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package cs.fau.de.since.radolan;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+
+import com.bitplan.geo.ProjectionImpl;
+import com.bitplan.radolan.RadarImage;
+import com.bitplan.radolan.Statistics;
+
+import cs.fau.de.since.radolan.Catalog.Unit;
+import cs.fau.de.since.radolan.Data.Encoding;
+
+/**
+ * compact representation of a composite that keeps the raw 16 bit values
+ * (12 bit value plus flags) of little endian or single byte encoded products
+ * and decodes them on access - needs half the memory of a decoded Composite
+ * 
+ * @author wf
+ *
+ */
+public class QuantizedComposite extends ProjectionImpl implements RadarImage {
+
+  private String product;
+  private ZonedDateTime captureTime;
+  private Duration interval;
+  private Unit dataUnit;
+  private int precision;
+  private double precisionFactor;
+  private Encoding encoding;
+
+  private int px; // plain data width
+  private int py; // plain data height
+  private int dz; // number of data layers
+  private int dataOffset; // start of the first data layer in the raw values
+
+  // raw values [y * px + x]
+  private short[] raw;
+  // maps the unsigned raw value to the rvp-6 value
+  private float[] table;
+
+  public String getProduct() {
+    return product;
+  }
+
+  public ZonedDateTime getCaptureTime() {
+    return captureTime;
+  }
+
+  @Override
+  public Duration getInterval() {
+    return interval;
+  }
+
+  @Override
+  public Unit getDataUnit() {
+    return dataUnit;
+  }
+
+  public int getPrecision() {
+    return precision;
+  }
+
+  public double getPrecisionFactor() {
+    return precisionFactor;
+  }
+
+  public Encoding getEncoding() {
+    return encoding;
+  }
+
+  public int getPx() {
+    return px;
+  }
+
+  public int getPy() {
+    return py;
+  }
+
+  public int getDz() {
+    return dz;
+  }
+
+  public int getDataOffset() {
+    return dataOffset;
+  }
+
+  public short[] getRaw() {
+    return raw;
+  }
+
+  /**
+   * quantize the given composite - only the header and the bytes of the
+   * composite are used so a lazy composite will never be decoded
+   * 
+   * @param c
+   *          - the composite to quantize
+   * @throws Exception
+   *           - if the encoding is not supported
+   */
+  public QuantizedComposite(Composite c) throws Exception {
+    product = c.getProduct();
+    captureTime = c.getCaptureTime();
+    interval = c.getInterval();
+    dataUnit = c.getDataUnit();
+    precision = c.getPrecision();
+    precisionFactor = c.getPrecisionFactor();
+    encoding = c.identifyEncoding();
+    px = c.getPx();
+    py = c.getPy();
+    Dx = c.getDx();
+    Dy = c.getDy();
+    // strip the elevation rows the same way the composite does
+    Data.getInstance().arrangeData(c);
+    dz = c.getDz();
+    dataOffset = c.getDataOffset();
+    DecodeTable decodeTable = c.getDecodeTable();
+    int valueSize;
+    switch (encoding) {
+    case littleEndian:
+      table = decodeTable.getLittleEndian();
+      valueSize = 2;
+      break;
+    case singleByte:
+      table = decodeTable.getSingleByte();
+      valueSize = 1;
+      break;
+    default:
+      throw new Exception(
+          "quantization is not supported for encoding " + encoding);
+    }
+    int ofs = c.header.length();
+    int rowLength = px * valueSize;
+    ByteBuffer buffer = c.buffer;
+    if (buffer == null) {
+      throw new Exception("quantize: the bytes of the composite are not available");
+    }
+    if (ofs + rowLength * py > buffer.limit()) {
+      throw new Exception(String.format(
+          "quantize: data section of %d bytes is too short for %d rows of %d bytes",
+          buffer.limit() - ofs, py, rowLength));
+    }
+    raw = new short[px * py];
+    for (int y = 0; y < py; y++) {
+      int pos = ofs + y * rowLength;
+      int dst = (py - 1 - y) * px; // write vertically flipped
+      for (int x = 0; x < px; x++, pos += valueSize) {
+        if (valueSize == 2)
+          raw[dst + x] = (short) ((buffer.get(pos + 1) & 0xFF) << 8
+              | (buffer.get(pos) & 0xFF));
+        else
+          raw[dst + x] = (short) (buffer.get(pos) & 0xFF);
+      }
+    }
+    Translate.calibrateProjection(this);
+  }
+
+  /**
+   * get the raw value at the given position of the first data layer
+   * 
+   * @param x
+   * @param y
+   * @return - the raw value including flags
+   */
+  public int getRawValue(int x, int y) {
+    return raw[dataOffset + y * px + x] & 0xFFFF;
+  }
+
+  @Override
+  public float getValue(int x, int y) {
+    float value = Float.NaN;
+    if (y >= 0 && y < Dy)
+      if (x >= 0 && x < px)
+        value = table[raw[dataOffset + y * px + x] & 0xFFFF];
+    return value;
+  }
+
+  @Override
+  public float[] getRow(int y, float[] row) {
+    if (row == null || row.length < px)
+      row = new float[px];
+    if (y >= 0 && y < Dy)
+      toFloat(dataOffset + y * px, row, 0, px);
+    else
+      Arrays.fill(row, 0, px, Float.NaN);
+    return row;
+  }
+
+  /**
+   * convert the given range of raw values
+   * 
+   * @param from
+   *          - index of the first raw value
+   * @param dst
+   *          - the destination
+   * @param dstOffset
+   *          - the offset in the destination
+   * @param length
+   *          - the number of values to convert
+   */
+  public void toFloat(int from, float[] dst, int dstOffset, int length) {
+    for (int i = 0; i < length; i++) {
+      dst[dstOffset + i] = table[raw[from + i] & 0xFFFF];
+    }
+  }
+
+  /**
+   * convert all values of the first data layer for analytics
+   * 
+   * @param dst
+   *          - the destination - will be created if null or too short
+   * @return - the values [y * px + x]
+   */
+  public float[] toFloat(float[] dst) {
+    int length = Dy * px;
+    if (dst == null || dst.length < length)
+      dst = new float[length];
+    toFloat(dataOffset, dst, 0, length);
+    return dst;
+  }
+
+  /**
+   * get the statistics of all my plain values - like the statistics of the
+   * composite these include the elevation rows
+   * 
+   * @return - the statistics
+   */
+  public Statistics getStatistics() {
+    Statistics statistics = new Statistics();
+    float[] row = new float[px];
+    for (int y = py - 1; y >= 0; y--) {
+      toFloat(y * px, row, 0, px);
+      statistics.addAll(row);
+    }
+    return statistics;
+  }
+}
@@ -23,30 +23,186 @@
  */
 package cs.fau.de.since.radolan;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * migrated to Java from https://gitlab.cs.fau.de/since/radolan/blob/master/runlength.go
  * @author wf
  *
  */
 public class RunLength {
-  
-//parseRunlength parses the runlength encoded composite and writes into the
-//previously created PlainData field of the composite.
-public static void  parseRunlength(Composite c)  {
- /*for i := range c.PlainData {
-   line, err := c.readLineRunlength(reader)
-   if err != nil {
-     return err
-   }
 
-   err = c.decodeRunlength(c.PlainData[i], line)
-   if err != nil {
-     return err
-   }
- }
+  // line delimiter of runlength encoded data
+  public static final byte NEWLINE = 0x0A;
+
+  /**
+   * parseRunlength parses the runlength encoded composite and writes into the
+   * grid being decoded of the composite. The lines of the
+   * binary section are decoded in a single pass over the bytes of the composite
+   * without creating intermediate line arrays
+   * 
+   * @param c
+   *          - the composite to parse
+   */
+  public static void parseRunlength(Composite c) {
+    float[] levels = levelTable(c);
+    int pos = c.header.length();
+    int width = c.getPx();
+    for (int y = 0; y < c.getPy(); y++) {
+      int end = readLineRunlength(c.buffer, pos);
+      if (end < 0) {
+        c.error = new Exception(String.format(
+            "readLineRunlength: line %d of %d is not terminated", y,
+            c.getPy()));
+        return;
+      }
+      try {
+        decodeRunlength(c.decoding, y * width, width, c.buffer, pos, end,
+            levels);
+      } catch (Exception e) {
+        c.error = e;
+        return;
+      }
+      pos = end + 1; // skip newline
+    }
+    c.updateStatistics();
+  }
+
+  /**
+   * readLineRunlength finds the end of the line starting at the given
+   * position. This method is used to get a line of runlength encoded data.
+   * 
+   * @param buffer
+   *          - the bytes to scan
+   * @param pos
+   *          - the start of the line
+   * @return - the position of the terminating newline or -1 if there is none
+   */
+  public static int readLineRunlength(ByteBuffer buffer, int pos) {
+    for (int i = pos; i < buffer.limit(); i++) {
+      if (buffer.get(i) == NEWLINE)
+        return i;
+    }
+    return -1;
+  }
+
+  /**
+   * parse the runlength encoded data from the given stream line by line
+   * 
+   * @param c
+   *          - the composite with the parsed header
+   * @param inputStream
+   *          - the stream positioned at the start of the data
+   * @throws Exception
+   */
+  public static void parseRunlength(Composite c, InputStream inputStream)
+      throws Exception {
+    float[] levels = levelTable(c);
+    int width = c.getPx();
+    byte[] line = new byte[width + 16];
+    for (int y = 0; y < c.getPy(); y++) {
+      int length = 0;
+      int b;
+      while ((b = inputStream.read()) != NEWLINE) {
+        if (b == -1) {
+          throw new Exception(String.format(
+              "readLineRunlength: line %d of %d is not terminated", y,
+              c.getPy()));
+        }
+        if (length == line.length)
+          line = Arrays.copyOf(line, line.length * 2);
+        line[length++] = (byte) b;
+      }
+      decodeRunlength(c.decoding, y * width, width, ByteBuffer.wrap(line), 0,
+          length, levels);
+    }
+    c.updateStatistics();
+  }
+
+  /**
+   * decodeRunlength decodes the source line from start (inclusive) to end
+   * (exclusive) and writes to the given destination.
+   * 
+   * @param dst
+   *          - the destination
+   * @param dstOffset
+   *          - the offset of the row in the destination
+   * @param width
+   *          - the width of the row
+   * @param src
+   *          - the source bytes
+   * @param start
+   *          - the start of the line
+   * @param end
+   *          - the end of the line
+   * @param levels
+   *          - the values for the 16 possible nibbles
+   * @throws Exception
+   *           - if the line is invalid
+   */
+  public static void decodeRunlength(float[] dst, int dstOffset, int width,
+      ByteBuffer src, int start, int end, float[] levels) throws Exception {
+    // fill destination as runlength encoding will induce gaps
+    Arrays.fill(dst, dstOffset, dstOffset + width, Float.NaN);
+
+    int dstpos = dstOffset;
+    int dstend = dstOffset + width;
+    boolean offset = true;
+    // skip useless line number
+    for (int i = start + 1; i < end; i++) {
+      int value = src.get(i) & 0xFF;
+      if (offset) { // calculate offset
+        if (value < 16) {
+          throw new Exception("decodeRunlength: invalid offset value");
+        }
+        dstpos += value - 16; // update offset position
+        offset = value == 255; // see if next byte will be also offset
+      } else {
+        // value [XXXX|YYYY] decodes to YYYY repeated XXXX times.
+        int runlength = value >> 4;
+        if (dstpos + runlength > dstend) {
+          throw new Exception("decodeRunlength: destination size exceeded");
+        }
+        float level = levels[value & 0x0F];
+        for (int j = 0; j < runlength; j++) {
+          dst[dstpos++] = level;
+        }
+      }
+    }
+  }
+
+  /**
+   * levelTable maps all 16 possible nibble values to radar video processor
+   * values (rvp-6) via the level field of the composite
+   * 
+   * @param c
+   *          - the composite
+   * @return - the table of values
+   */
+  public static float[] levelTable(Composite c) {
+    float[] levels = new float[16];
+    for (int value = 0; value < levels.length; value++) {
+      levels[value] = rvp6Runlength(c, value);
+    }
+    return levels;
+  }
+
+  // rvp6Runlength sets the value of level based composite products to radar
+  // video processor values (rvp-6).
+  public static float rvp6Runlength(Composite c, int value) {
+    if (value == 0) {
+      return Float.NaN;
+    }
+    value--;
+
+    if (value >= c.level.length) { // border markings
+      return Float.NaN;
+    }
+    return c.level[value];
+  }
 
- return nil*/
-}
 /*
 //readLineRunlength reads a line until newline (non inclusive) from the given reader.
 //This method is used to get a line of runlenth encoded data.
@@ -23,6 +23,10 @@
  */
 package cs.fau.de.since.radolan;
 
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
 /**
  * migrated to Java from https://gitlab.cs.fau.de/since/radolan/blob/master/singlebyte.go
  * @author wf
@@ -31,14 +35,14 @@ package cs.fau.de.since.radolan;
 public class SingleByte {
 
   // parseSingleByte parses the single byte encoded composite as described in [1] and writes
-  // into the previously created PlainData field of the composite.
+  // into the grid being decoded of the composite.
   public static void parseSingleByte(Composite c) {
-    int last = c.PlainData.length - 1;
-    for (int y = 0; y < c.PlainData.length; y++) {
+    int last = c.getPy() - 1;
+    for (int y = 0; y < c.getPy(); y++) {
       byte[] yline = readRowSingleByte(c, y);
       try {
         int yt = last - y; // write vertically flipped
-        int yw = c.PlainData[last - y].length;
+        int yw = c.getPx();
         decodeSingleByte(c, yt, yw, yline);
       } catch (Exception e) {
         c.error = e;
@@ -47,6 +51,58 @@ public class SingleByte {
     }
   }
 
+  /**
+   * parse the single byte encoded data from the given stream row by row
+   * 
+   * @param c
+   *          - the composite with the parsed header
+   * @param inputStream
+   *          - the stream positioned at the start of the data
+   * @throws Exception
+   */
+  public static void parseSingleByte(Composite c, InputStream inputStream)
+      throws Exception {
+    int last = c.getPy() - 1;
+    int width = c.getPx();
+    if (width != c.getDx()) {
+      throw new Exception(String.format(
+          "decodeSingleByte destination size %d and source size %d are not even or equal",
+          width, c.getDx()));
+    }
+    float[] table = c.getDecodeTable().getSingleByte();
+    byte[] row = new byte[width];
+    ByteBuffer rowBuffer = ByteBuffer.wrap(row);
+    DataInputStream dataStream = new DataInputStream(inputStream);
+    for (int y = 0; y < c.getPy(); y++) {
+      dataStream.readFully(row);
+      decodeRow(rowBuffer, 0, c.decoding, (last - y) * width, width, table);
+    }
+    c.updateStatistics();
+  }
+
+  /**
+   * decode a row of single byte encoded values
+   * 
+   * @param src
+   *          - the source buffer
+   * @param pos
+   *          - the position of the row in the source
+   * @param dst
+   *          - the destination
+   * @param dstOffset
+   *          - the position of the row in the destination
+   * @param width
+   *          - the number of values to decode
+   * @param table
+   *          - the single byte decode table
+   */
+  public static void decodeRow(ByteBuffer src, int pos, float[] dst,
+      int dstOffset, int width, float[] table) {
+    for (int x = 0; x < width; x++) {
+      dst[dstOffset + x] = table[src.get(pos + x) & 0xff];
+    }
+  }
+
   // readRowSingleByte reads a line until horizontal limit from the given reader
   // This method is used to get a line of single byte encoded data.
   private static byte[] readRowSingleByte(Composite c, int y) {
@@ -64,29 +120,13 @@ public class SingleByte {
               "decodeSingleByte destination size %d and source size %d are not even or equal",
               xw, line.length));
     }
+    float[] table = c.getDecodeTable().getSingleByte();
     for (int x = 0; x < xw; x++) {
-      float value = rvp6SingleByte(c, line[x]);
-      c.setValue(x, y, value);
+      float value = table[line[x] & 0xff];
+      c.setPlainValue(x, y, value);
     }
   }
 
-  // rvp6SingleByte converts the raw byte of single byte encoded
-  // composite products to radar video processor values (rvp-6). NaN may be returned
-  // when the no-data flag is set.
-  private static float rvp6SingleByte(Composite c, byte value) {
-    if (value == 250) {
-      return Float.NaN;
-    }
-
-    float conv = (float) c.rvp6Raw(value & 0xff);  // set decimal point
-
-    if (c.getDataUnit() != Catalog.Unit.Unit_dBZ) {
-      return conv;
-    }
-
-    return Conversion.toDBZ(conv);
-  }
-
 /*
   func (c *Composite) readLineSingleByte(rd *bufio.Reader) (line []byte, err error) {
     line = make([]byte, c.Dx)
@@ -25,17 +25,35 @@ package com.bitplan.radolan;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.Period;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 
 import com.bitplan.dateutils.DateUtils;
+import com.bitplan.util.CacheIndex;
 import com.bitplan.util.CachedUrl;
+import com.bitplan.util.DownloadCoordinator;
+import com.bitplan.util.LatestCache;
+import com.bitplan.util.MirrorServer;
+
+import cs.fau.de.since.radolan.Composite;
 
 /**
  * Test the Cache as asked for by
@@ -78,9 +96,299 @@ public class TestCache extends BaseTest {
   public void testNoCacheForLatest() throws Exception {
     String url = "https://opendata.dwd.de/weather/radar/radolan/sf/raa01-sf_10000-latest-dwd---bin";
     String knownUrl = "https://opendata.dwd.de/weather/radar/radolan";
-    String cacheUrl = CachedUrl.checkCache(url, true);
-    File cacheFile = CachedUrl.cacheForUrl(url, knownUrl);
-    assertFalse(cacheFile.exists());
-    assertEquals(url, cacheUrl);
+    boolean revalidateLatest = CachedUrl.revalidateLatest;
+    try {
+      CachedUrl.revalidateLatest = false;
+      String cacheUrl = CachedUrl.checkCache(url, true);
+      File cacheFile = CachedUrl.cacheForUrl(url, knownUrl);
+      assertFalse(cacheFile.exists());
+      assertEquals(url, cacheUrl);
+    } finally {
+      CachedUrl.revalidateLatest = revalidateLatest;
+    }
+  }
+
+  @Test
+  public void testDownloadCoordinator() throws Exception {
+    File source = new File(
+        "src/test/data/history/raa01-sf_10000-1805301650-dwd---bin.gz");
+    String url = source.toURI().toURL().toExternalForm();
+    File dir = Files.createTempDirectory("radolan-cache").toFile();
+    try {
+      File target = new File(dir, "sf/" + source.getName());
+      DownloadCoordinator coordinator = new DownloadCoordinator(2);
+      List<CompletableFuture<File>> futures = new ArrayList<CompletableFuture<File>>();
+      for (int i = 0; i < 8; i++) {
+        futures.add(coordinator.downloadAsync(url, target));
+      }
+      for (CompletableFuture<File> future : futures) {
+        assertEquals(target, future.get());
+      }
+      // all requests shared a single download
+      assertEquals(1, coordinator.getDownloadCount());
+      assertTrue(FileUtils.contentEquals(source, target));
+      assertFalse(new File(target.getPath() + ".part").exists());
+
+      // a failed download leaves no file behind
+      File missing = new File(dir, "missing");
+      try {
+        coordinator.download(new File(dir, "nothere").toURI().toURL()
+            .toExternalForm(), missing);
+        fail("download of a missing file should fail");
+      } catch (IOException e) {
+        // expected
+      }
+      assertFalse(missing.exists());
+      assertFalse(new File(missing.getPath() + ".part").exists());
+    } finally {
+      FileUtils.deleteDirectory(dir);
+    }
+  }
+
+  @Test
+  public void testPrefetch() throws Exception {
+    LocalDateTime from = LocalDateTime.of(2018, 5, 30, 16, 1);
+    LocalDateTime to = LocalDateTime.of(2018, 5, 30, 16, 30);
+    List<LocalDateTime> dateTimes = KnownUrl.getDateTimesForProduct("ry",
+        from, to);
+    assertEquals(6, dateTimes.size());
+    assertEquals(LocalDateTime.of(2018, 5, 30, 16, 5), dateTimes.get(0));
+    assertEquals(to, dateTimes.get(5));
+    // 16:50 and 17:50
+    assertEquals(2, KnownUrl.getDateTimesForProduct("rw", from,
+        LocalDateTime.of(2018, 5, 30, 17, 50)).size());
+    // all months of a previous year share the monthly archive url
+    CompositeManager cm = new CompositeManager();
+    assertEquals(1, cm.getUrls("sf", LocalDateTime.of(2017, 3, 1, 0, 0),
+        LocalDateTime.of(2017, 3, 31, 23, 50)).size());
+
+    String cacheRootPath = CachedUrl.cacheRootPath;
+    File dir = Files.createTempDirectory("radolan-cache").toFile();
+    try {
+      CachedUrl.cacheRootPath = dir.getPath();
+      // files that are already cached are not downloaded again
+      for (String url : cm.getUrls("ry", from, to)) {
+        FileUtils.writeStringToFile(CachedUrl.cacheForUrl(url), url, "UTF-8");
+      }
+      List<String> progress = new ArrayList<String>();
+      int available = cm.prefetch("ry", from, to,
+          (url, done, total, error) -> {
+            assertEquals(6, total);
+            assertEquals(null, error);
+            synchronized (progress) {
+              progress.add(url);
+            }
+          });
+      assertEquals(6, available);
+      assertEquals(6, progress.size());
+    } finally {
+      CachedUrl.cacheRootPath = cacheRootPath;
+      FileUtils.deleteDirectory(dir);
+    }
+  }
+
+  @Test
+  public void testMirror() throws Throwable {
+    File source = new File(
+        "src/test/data/history/raa01-sf_10000-1805301650-dwd---bin.gz");
+    File dir = Files.createTempDirectory("radolan-mirror").toFile();
+    String cacheRootPath = CachedUrl.cacheRootPath;
+    try (MirrorServer server = new MirrorServer(new File(dir, "mirror"), 0)
+        .start()) {
+      String latestUrl = KnownUrl.getUrl("sf", "latest");
+      String url = KnownUrl.RADOLAN_OPENDATA
+          + "/sf/raa01-sf_10000-1805301650-dwd---bin";
+      for (String mirrored : new String[] { latestUrl, url }) {
+        FileUtils.copyFile(source, new File(dir,
+            "mirror/" + mirrored.substring("https://".length())));
+      }
+      KnownUrl.setMirror(server.getBaseUrl());
+      assertEquals(server.getBaseUrl()
+          + "/opendata.dwd.de/weather/radar/radolan/sf/raa01-sf_10000-latest-dwd---bin",
+          KnownUrl.getMirroredUrl(latestUrl));
+      CachedUrl.cacheRootPath = new File(dir, "cache").getPath();
+      Composite c = new Composite(source.toURI().toURL().toExternalForm());
+      // latest is read from the mirror directly
+      Composite latest = new Composite(latestUrl);
+      assertEquals(c.getCaptureTime(), latest.getCaptureTime());
+      // other urls are cached from the mirror
+      Composite cached = new Composite(url);
+      assertEquals(c.getCaptureTime(), cached.getCaptureTime());
+      assertTrue(FileUtils.contentEquals(source, CachedUrl.cacheForUrl(url)));
+      // prefetched files are downloaded from the mirror as well
+      LocalDateTime ryTime = LocalDateTime.of(2018, 5, 30, 16, 5);
+      String ryUrl = KnownUrl.getUrlForProduct("ry", ryTime);
+      FileUtils.copyFile(source, new File(dir,
+          "mirror/" + ryUrl.substring("https://".length())));
+      assertEquals(1, new CompositeManager().prefetch("ry", ryTime, ryTime));
+      assertTrue(FileUtils.contentEquals(source, CachedUrl.cacheForUrl(ryUrl)));
+      // and tracked by the cache index
+      assertNotNull(CacheIndex.getInstance(CachedUrl.getCacheRoot())
+          .getEntry(CachedUrl.cacheForUrl(ryUrl)));
+    } finally {
+      KnownUrl.setMirror(null);
+      CachedUrl.cacheRootPath = cacheRootPath;
+      FileUtils.deleteDirectory(dir);
+    }
+  }
+
+  @Test
+  public void testCacheIndex() throws Exception {
+    assertEquals("sf",
+        CacheIndex.getProduct("raa01-sf_10000-1805301650-dwd---bin.gz"));
+    assertEquals("sf", CacheIndex.getProduct("SF201805.tar.gz"));
+    assertEquals(null, CacheIndex.getProduct("stations.txt"));
+    File dir = Files.createTempDirectory("radolan-cache").toFile();
+    long budget = CacheIndex.budget;
+    try {
+      // existing files are indexed once
+      File old = new File(dir, "ry/raa01-ry_10000-1805301600-dwd---bin");
+      FileUtils.writeStringToFile(old, "0123456789", "UTF-8");
+      CacheIndex index = new CacheIndex(dir);
+      assertEquals(1, index.getEntries().size());
+      assertEquals(10, index.getTotalSize());
+      assertTrue(new File(dir, CacheIndex.INDEX_FILE).exists());
+
+      File sf = new File(dir, "sf/raa01-sf_10000-1805301650-dwd---bin");
+      File rw = new File(dir, "rw/raa01-rw_10000-1805301650-dwd---bin");
+      File rw2 = new File(dir, "rw/raa01-rw_10000-1805301750-dwd---bin");
+      for (File file : new File[] { sf, rw, rw2 }) {
+        FileUtils.writeStringToFile(file, "0123456789", "UTF-8");
+        index.added(file);
+      }
+      Thread.sleep(5);
+      index.accessed(rw);
+      index.flush();
+      assertEquals(40, index.getTotalSize());
+      // the index survives a restart
+      index = new CacheIndex(dir);
+      assertEquals(4, index.getEntries().size());
+      assertEquals(40, index.getTotalSize());
+
+      // ry is only kept for 7 days and sf forever
+      CacheIndex.setRetention("ry", Duration.ofDays(7));
+      CacheIndex.setRetention("sf", CacheIndex.FOREVER);
+      long later = System.currentTimeMillis() + Duration.ofDays(8).toMillis();
+      assertEquals(1, index.evict(later));
+      assertFalse(old.exists());
+      // the least recently used file is evicted to keep the budget
+      CacheIndex.budget = 25;
+      assertEquals(1, index.evict(later));
+      assertFalse(rw2.exists());
+      assertTrue(rw.exists());
+      // sf is never evicted
+      CacheIndex.budget = 0;
+      assertEquals(1, index.evict(later));
+      assertTrue(sf.exists());
+      assertEquals(10, index.getTotalSize());
+      index.save();
+      assertEquals(1, new CacheIndex(dir).getEntries().size());
+      // added and evicted files are appended to the index file
+      File indexFile = new File(dir, CacheIndex.INDEX_FILE);
+      long indexSize = indexFile.length();
+      CacheIndex.budget = 25;
+      FileUtils.writeStringToFile(rw2, "0123456789", "UTF-8");
+      index.added(rw2);
+      assertTrue(indexFile.length() > indexSize);
+      FileUtils.writeStringToFile(old, "0123456789", "UTF-8");
+      index.added(old);
+      // rw2 is evicted to keep the budget
+      assertFalse(rw2.exists());
+      index = new CacheIndex(dir);
+      assertEquals(2, index.getEntries().size());
+      assertEquals(20, index.getTotalSize());
+      assertEquals(null, index.getEntry(rw2));
+      assertNotNull(index.getEntry(old));
+    } finally {
+      CacheIndex.budget = budget;
+      CacheIndex.removeRetention("ry");
+      CacheIndex.removeRetention("sf");
+      FileUtils.deleteDirectory(dir);
+    }
+  }
+
+  @Test
+  public void testUnzipCache() throws Throwable {
+    File source = new File(
+        "src/test/data/history/raa01-sf_10000-1805301650-dwd---bin.gz");
+    File dir = Files.createTempDirectory("radolan-cache").toFile();
+    String cacheRootPath = CachedUrl.cacheRootPath;
+    boolean unzipCache = CachedUrl.unzipCache;
+    try {
+      CachedUrl.cacheRootPath = dir.getPath();
+      String url = KnownUrl.RADOLAN_OPENDATA + "/sf/" + source.getName();
+      File cacheFile = CachedUrl.cacheForUrl(url);
+      FileUtils.copyFile(source, cacheFile);
+      Composite c = new Composite(source.toURI().toURL().toExternalForm());
+
+      CachedUrl.unzipCache = true;
+      String cachedUrl = CachedUrl.checkCache(url, true);
+      File unzippedFile = new File(cacheFile.getPath() + CachedUrl.UNZIPPED_EXT);
+      assertEquals(unzippedFile.toURI().toURL().toExternalForm(), cachedUrl);
+      byte[] bytes = FileUtils.readFileToByteArray(unzippedFile);
+      assertFalse(CachedUrl.isGzip(bytes[0], bytes[1]));
+      assertTrue(bytes.length > cacheFile.length());
+      Composite unzipped = new Composite(url);
+      assertEquals(c.getCaptureTime(), unzipped.getCaptureTime());
+      assertEquals(c.getValue(450, 450), unzipped.getValue(450, 450), 0.0001);
+      // the uncompressed copy is used as is
+      long modified = unzippedFile.lastModified();
+      assertEquals(cachedUrl, CachedUrl.checkCache(url, true));
+      assertEquals(modified, unzippedFile.lastModified());
+      // archives keep their own uncompressed copy
+      assertEquals(null,
+          CachedUrl.getUnzippedFile(new File(dir, "SF201805.tar.gz")));
+    } finally {
+      CachedUrl.unzipCache = unzipCache;
+      CachedUrl.cacheRootPath = cacheRootPath;
+      FileUtils.deleteDirectory(dir);
+    }
+  }
+
+  @Test
+  public void testLatestRevalidation() throws Throwable {
+    File source = new File(
+        "src/test/data/history/raa01-sf_10000-1805301650-dwd---bin.gz");
+    File dir = Files.createTempDirectory("radolan-latest").toFile();
+    String cacheRootPath = CachedUrl.cacheRootPath;
+    long ttlMillis = LatestCache.ttlMillis;
+    try (MirrorServer server = new MirrorServer(new File(dir, "mirror"), 0)
+        .start()) {
+      String latestUrl = KnownUrl.getUrl("sf", "latest");
+      File mirrored = new File(dir,
+          "mirror/" + latestUrl.substring("https://".length()));
+      FileUtils.copyFile(source, mirrored);
+      mirrored.setLastModified(System.currentTimeMillis() - 3600 * 1000);
+      KnownUrl.setMirror(server.getBaseUrl());
+      CachedUrl.cacheRootPath = new File(dir, "cache").getPath();
+      LatestCache latestCache = LatestCache.getInstance();
+      CompositeCache compositeCache = new CompositeCache(Long.MAX_VALUE);
+      int revalidations = latestCache.getRevalidations();
+      int downloads = latestCache.getDownloads();
+
+      // within the ttl the local copy is used as is
+      Composite latest = compositeCache.getComposite(latestUrl);
+      assertSame(latest, compositeCache.getComposite(latestUrl));
+      assertEquals(revalidations + 1, latestCache.getRevalidations());
+      assertEquals(downloads + 1, latestCache.getDownloads());
+
+      // after the ttl the origin is asked but the content is not downloaded
+      LatestCache.ttlMillis = 0;
+      assertSame(latest, compositeCache.getComposite(latestUrl));
+      assertEquals(revalidations + 2, latestCache.getRevalidations());
+      assertEquals(downloads + 1, latestCache.getDownloads());
+
+      // a new file is published
+      mirrored.setLastModified(System.currentTimeMillis());
+      Composite newer = compositeCache.getComposite(latestUrl);
+      assertNotSame(latest, newer);
+      assertEquals(downloads + 2, latestCache.getDownloads());
+      assertEquals(1, compositeCache.size());
+    } finally {
+      LatestCache.ttlMillis = ttlMillis;
+      KnownUrl.setMirror(null);
+      CachedUrl.cacheRootPath = cacheRootPath;
+      FileUtils.deleteDirectory(dir);
+    }
   }
 }
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package com.bitplan.radolan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.bitplan.radolan.CompositeArchive.Member;
+import com.bitplan.util.CacheIndex;
+import com.bitplan.util.CachedUrl;
+
+import cs.fau.de.since.radolan.Composite;
+
+/**
+ * test reading composites from monthly tar archives
+ * 
+ * @author wf
+ *
+ */
+public class TestCompositeArchive extends BaseTest {
+  File sfHistoryFile = new File(
+      "src/test/data/history/raa01-sf_10000-1805301650-dwd---bin.gz");
+
+  /**
+   * add a member with the given name and content to the given tar stream
+   * 
+   * @param tarOut
+   * @param name
+   * @param content
+   * @throws Exception
+   */
+  public void addMember(TarArchiveOutputStream tarOut, String name,
+      byte[] content) throws Exception {
+    TarArchiveEntry entry = new TarArchiveEntry(name);
+    entry.setSize(content.length);
+    tarOut.putArchiveEntry(entry);
+    tarOut.write(content);
+    tarOut.closeArchiveEntry();
+  }
+
+  @Test
+  public void testArchive() throws Throwable {
+    Composite c = new Composite(sfHistoryFile.toURI().toURL().toExternalForm());
+    File dir = Files.createTempDirectory("radolan-archive").toFile();
+    String cacheRootPath = CachedUrl.cacheRootPath;
+    try {
+      CachedUrl.cacheRootPath = dir.getPath();
+      File archiveFile = new File(dir, "SF201805.tar.gz");
+      try (OutputStream out = new GZIPOutputStream(
+          new FileOutputStream(archiveFile));
+          TarArchiveOutputStream tarOut = new TarArchiveOutputStream(out)) {
+        // gzipped and plain members
+        addMember(tarOut, "raa01-sf_10000-1805301650-dwd---bin.gz",
+            FileUtils.readFileToByteArray(sfHistoryFile));
+        addMember(tarOut, "201805/raa01-sf_10000-1805311650-dwd---bin",
+            c.bytes);
+      }
+      CompositeArchive archive = CompositeArchive.getArchive(archiveFile);
+      assertSame(archive, CompositeArchive.getArchive(archiveFile));
+      assertTrue(archive.getTarFile().exists());
+      assertEquals(2, archive.getMembers().size());
+
+      Member member = archive.getMember("sf",
+          LocalDateTime.of(2018, 5, 30, 16, 59));
+      assertNotNull(member);
+      checkSame(c, archive.getComposite(member));
+      Composite plain = archive.getComposite("sf",
+          LocalDateTime.of(2018, 5, 31, 17, 5));
+      checkSame(c, plain);
+      assertNull(archive.getMember("sf", LocalDateTime.of(2018, 5, 1, 17, 5)));
+      archive.close();
+
+      // the index is written next to the cached archive and reused
+      File indexFile = new File(archiveFile.getPath() + ".idx");
+      assertEquals(indexFile, archive.getIndexFile());
+      assertTrue(indexFile.exists());
+      CompositeArchive indexed = new CompositeArchive(archive.getTarFile(),
+          indexFile);
+      assertEquals(archive.getMembers().size(), indexed.getMembers().size());
+      for (Member m : archive.getMembers()) {
+        Member im = indexed.getMember(m.getName());
+        assertEquals(m.getOffset(), im.getOffset());
+        assertEquals(m.getSize(), im.getSize());
+      }
+      // re-cache the members as single files
+      indexed.split();
+      File memberFile = new File(indexed.getMemberDir(),
+          "raa01-sf_10000-1805311650-dwd---bin");
+      assertTrue(memberFile.exists());
+      checkSame(c, indexed.getComposite(indexed.getMember("sf",
+          LocalDateTime.of(2018, 5, 31, 17, 5))));
+      checkSame(c, indexed.getComposite(member));
+      indexed.close();
+      // the derived files are tracked by the cache index
+      CacheIndex cacheIndex = CacheIndex.getInstance(dir);
+      for (File derived : new File[] { archive.getTarFile(), indexFile,
+          memberFile }) {
+        assertNotNull(derived.getName(), cacheIndex.getEntry(derived));
+        assertEquals("sf", cacheIndex.getEntry(derived).getProduct());
+      }
+    } finally {
+      CachedUrl.cacheRootPath = cacheRootPath;
+      CompositeArchive.closeArchives();
+      FileUtils.deleteDirectory(dir);
+    }
+  }
+
+  @Test
+  public void testOpenArchives() throws Throwable {
+    Composite c = new Composite(sfHistoryFile.toURI().toURL().toExternalForm());
+    File dir = Files.createTempDirectory("radolan-archive").toFile();
+    int maxOpenArchives = CompositeArchive.maxOpenArchives;
+    try {
+      File may = new File(dir, "SF201805.tar");
+      File june = new File(dir, "SF201806.tar");
+      try (TarArchiveOutputStream tarOut = new TarArchiveOutputStream(
+          new FileOutputStream(may))) {
+        addMember(tarOut, "raa01-sf_10000-1805311650-dwd---bin", c.bytes);
+      }
+      FileUtils.copyFile(may, june);
+      CompositeArchive.maxOpenArchives = 1;
+      CompositeArchive mayArchive = CompositeArchive.getArchive(may);
+      assertSame(mayArchive, CompositeArchive.getArchive(may));
+      // opening june closes may
+      CompositeArchive.getArchive(june);
+      assertNotSame(mayArchive, CompositeArchive.getArchive(may));
+      // a closed archive that is still in use is reopened on demand
+      checkSame(c, mayArchive.getComposite("sf",
+          LocalDateTime.of(2018, 5, 31, 17, 5)));
+      mayArchive.close();
+    } finally {
+      CompositeArchive.maxOpenArchives = maxOpenArchives;
+      CompositeArchive.closeArchives();
+      FileUtils.deleteDirectory(dir);
+    }
+  }
+
+  /**
+   * check that the given composites have the same values
+   * 
+   * @param c
+   * @param other
+   */
+  public void checkSame(Composite c, Composite other) {
+    assertEquals(c.getCaptureTime(), other.getCaptureTime());
+    for (int y = 0; y < c.getGridHeight(); y++) {
+      for (int x = 0; x < c.getGridWidth(); x++) {
+        assertEquals(c.getValue(x, y), other.getValue(x, y), 0.0);
+      }
+    }
+  }
+}
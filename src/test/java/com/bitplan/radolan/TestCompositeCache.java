@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package com.bitplan.radolan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import cs.fau.de.since.radolan.Composite;
+
+/**
+ * test the cache of decoded composites
+ * 
+ * @author wf
+ *
+ */
+public class TestCompositeCache extends BaseTest {
+  File sfHistoryFile = new File(
+      "src/test/data/history/raa01-sf_10000-1805301650-dwd---bin.gz");
+
+  @Test
+  public void testCompositeCache() throws Throwable {
+    String url = sfHistoryFile.toURI().toURL().toExternalForm();
+    Composite c = new Composite(url);
+    long weight = CompositeCache.weigh(c);
+    // the grid and the raw little endian content
+    assertEquals(900 * 900 * 4 + c.bytes.length, weight);
+    assertTrue(c.bytes.length > 900 * 900 * 2);
+    // room for two composites
+    CompositeCache cache = new CompositeCache(2 * weight);
+    Composite c1 = cache.getComposite(url);
+    assertSame(c1, cache.getComposite(url));
+    assertEquals(1, cache.getLoads());
+    assertEquals(1, cache.getHits());
+
+    cache.put("b", c);
+    // touch the url so that b is the least recently used
+    cache.getComposite(url);
+    cache.put("c", c);
+    assertEquals(2, cache.size());
+    assertEquals(2 * weight, cache.getWeight());
+    assertNull(cache.getIfPresent("b"));
+    assertNotNull(cache.getIfPresent(url));
+
+    // failed loads are not cached
+    try {
+      cache.get("fail", () -> {
+        throw new Exception("load failed");
+      });
+      fail("the load should fail");
+    } catch (Exception e) {
+      assertEquals("load failed", e.getMessage());
+    }
+    assertNull(cache.getIfPresent("fail"));
+  }
+
+  @Test
+  public void testSingleFlight() throws Throwable {
+    String url = sfHistoryFile.toURI().toURL().toExternalForm();
+    CompositeCache cache = new CompositeCache(Long.MAX_VALUE);
+    CountDownLatch start = new CountDownLatch(1);
+    List<CompletableFuture<Composite>> futures = new ArrayList<CompletableFuture<Composite>>();
+    for (int i = 0; i < 8; i++) {
+      futures.add(CompletableFuture.supplyAsync(() -> {
+        try {
+          start.await();
+          return cache.get("sf", () -> {
+            Thread.sleep(100);
+            return new Composite(url);
+          });
+        } catch (Throwable th) {
+          throw new RuntimeException(th);
+        }
+      }));
+    }
+    start.countDown();
+    Composite first = futures.get(0).get();
+    for (CompletableFuture<Composite> future : futures) {
+      assertSame(first, future.get());
+    }
+    // all requests shared a single load
+    assertEquals(1, cache.getLoads());
+  }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package com.bitplan.radolan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import cs.fau.de.since.radolan.Composite;
+
+/**
+ * test the memory mapped composite store
+ * 
+ * @author wf
+ *
+ */
+public class TestCompositeStore extends BaseTest {
+  File sfHistoryFile = new File(
+      "src/test/data/history/raa01-sf_10000-1805301650-dwd---bin.gz");
+
+  /**
+   * check that the given image has the same values as the given composite
+   * 
+   * @param c
+   * @param image
+   */
+  public void checkSame(Composite c, RadarImage image) {
+    assertEquals(c.getGridWidth(), image.getGridWidth());
+    assertEquals(c.getGridHeight(), image.getGridHeight());
+    for (int y = 0; y < c.getGridHeight(); y++) {
+      for (int x = 0; x < c.getGridWidth(); x++) {
+        assertEquals(c.getValue(x, y), image.getValue(x, y), 0.0);
+      }
+    }
+  }
+
+  @Test
+  public void testStore() throws Throwable {
+    String url = sfHistoryFile.toURI().toURL().toExternalForm();
+    Composite c = new Composite(url);
+    File storeFile = File.createTempFile("radolan-sf", ".store");
+    try {
+      CompositeStore store = CompositeStore.create(storeFile, "sf",
+          c.getGridWidth(), c.getGridHeight(),
+          c.getCaptureTime().minusDays(2), Duration.ofDays(1),
+          c.getInterval(), c.getDataUnit());
+      store.put(c);
+      assertEquals(3, store.getSlotCount());
+      store.close();
+
+      store = CompositeStore.open(storeFile, true);
+      assertEquals("sf", store.getProduct());
+      assertEquals(c.getDataUnit(), store.getDataUnit());
+      assertNull(store.get(0));
+      assertNull(store.get(c.getCaptureTime().plusDays(1)));
+      MappedRadarImage image = store.get(c.getCaptureTime());
+      assertNotNull(image);
+      assertEquals(c.getCaptureTime(), image.getCaptureTime());
+      assertEquals(c.isProjection(), image.isProjection());
+      checkSame(c, image);
+      try {
+        store.put(c);
+        fail("a read only store should reject a put");
+      } catch (IOException e) {
+        // expected
+      }
+      store.close();
+    } finally {
+      storeFile.delete();
+    }
+  }
+
+  @Test
+  public void testRebuild() throws Throwable {
+    File cacheRoot = Files.createTempDirectory("radolan").toFile();
+    File storeFile = new File(cacheRoot, "sf.store");
+    try {
+      FileUtils.copyFileToDirectory(sfHistoryFile,
+          new File(cacheRoot, "recent/bin"));
+      // an unreadable cache file is skipped
+      FileUtils.writeStringToFile(
+          new File(cacheRoot, "recent/bin/raa01-sf_10000-1805291650-dwd---bin"),
+          "no composite", "UTF-8");
+      assertEquals(1, CompositeStore.rebuild(cacheRoot, "sf", storeFile));
+      Composite c = new Composite(
+          sfHistoryFile.toURI().toURL().toExternalForm());
+      CompositeStore store = CompositeStore.open(storeFile, true);
+      checkSame(c, store.get(c.getCaptureTime()));
+      store.close();
+    } finally {
+      FileUtils.deleteDirectory(cacheRoot);
+    }
+  }
+}
@@ -24,21 +24,34 @@
 package com.bitplan.radolan;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 import java.util.function.Consumer;
 import java.util.zip.GZIPInputStream;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.junit.Ignore;
 import org.junit.Test;
 
 import cs.fau.de.since.radolan.Composite;
+import cs.fau.de.since.radolan.Data;
 import cs.fau.de.since.radolan.Data.Encoding;
+import cs.fau.de.since.radolan.LittleEndian;
+import cs.fau.de.since.radolan.QuantizedComposite;
+import cs.fau.de.since.radolan.TestLayers;
 
 /**
  * test access to the OpenData results of DWD
@@ -81,6 +94,253 @@ public class TestData extends BaseTest {
     }
   }
 
+  @Test
+  public void testBulkDecode() throws Throwable {
+    File sfHistoryFile = new File(
+        "src/test/data/history/raa01-sf_10000-1805301650-dwd---bin.gz");
+    String url = sfHistoryFile.toURI().toURL().toExternalForm();
+    try {
+      LittleEndian.bulkDecode = false;
+      Composite c = new Composite(url);
+      LittleEndian.bulkDecode = true;
+      Composite cb = new Composite(url);
+      checkLittleEndian(cb, "SF");
+      for (int y = 0; y < c.getGridHeight(); y++) {
+        for (int x = 0; x < c.getGridWidth(); x++) {
+          assertEquals(Float.floatToIntBits(c.getValue(x, y)),
+              Float.floatToIntBits(cb.getValue(x, y)));
+        }
+      }
+      assertEquals(c.getStatistics().toString(),
+          cb.getStatistics().toString());
+    } finally {
+      LittleEndian.bulkDecode = true;
+    }
+  }
+
+  @Test
+  public void testParallelDecode() throws Throwable {
+    File sfHistoryFile = new File(
+        "src/test/data/history/raa01-sf_10000-1805301650-dwd---bin.gz");
+    String url = sfHistoryFile.toURI().toURL().toExternalForm();
+    int threshold = Data.parallelThreshold;
+    try {
+      Composite c = new Composite(url);
+      Data.parallelDecode = true;
+      // the 900x900 national grid would stay sequential by default
+      Data.parallelThreshold = 0;
+      Composite cp = new Composite(url);
+      checkLittleEndian(cp, "SF");
+      for (int y = 0; y < c.getGridHeight(); y++) {
+        for (int x = 0; x < c.getGridWidth(); x++) {
+          assertEquals(Float.floatToIntBits(c.getValue(x, y)),
+              Float.floatToIntBits(cp.getValue(x, y)));
+        }
+      }
+      assertEquals(c.getStatistics().toString(),
+          cp.getStatistics().toString());
+    } finally {
+      Data.parallelDecode = false;
+      Data.parallelThreshold = threshold;
+    }
+  }
+
+  @Test
+  public void testLazy() throws Throwable {
+    File sfHistoryFile = new File(
+        "src/test/data/history/raa01-sf_10000-1805301650-dwd---bin.gz");
+    String url = sfHistoryFile.toURI().toURL().toExternalForm();
+    Composite lazy = new Composite(url, true);
+    assertTrue(lazy.isLazy());
+    assertFalse(lazy.isLoaded());
+    assertEquals("SF", lazy.getProduct());
+    assertEquals(900, lazy.getGridWidth());
+    assertEquals(900, lazy.getGridHeight());
+    assertNotNull(lazy.getCaptureTime());
+    Composite c = new Composite(url);
+    assertEquals(c.getValue(450, 450), lazy.getValue(450, 450), 0.0001);
+    assertTrue(lazy.isLoaded());
+    checkLittleEndian(lazy, "SF");
+  }
+
+  @Test
+  public void testLazyFailure() throws Throwable {
+    File sfHistoryFile = new File(
+        "src/test/data/history/raa01-sf_10000-1805301650-dwd---bin.gz");
+    byte[] bytes;
+    try (InputStream in = new FileInputStream(sfHistoryFile)) {
+      bytes = IOUtils.toByteArray(new GZIPInputStream(in));
+    }
+    // only half of the data section is available
+    Composite lazy = Composite.fromByteBuffer(
+        ByteBuffer.wrap(bytes, 0, bytes.length / 2), true);
+    // a failed decode is not taken for loaded data and is reported again
+    for (int i = 0; i < 2; i++) {
+      try {
+        lazy.getValue(450, 450);
+        fail("the truncated data should not be decoded");
+      } catch (RuntimeException re) {
+        assertNotNull(lazy.error);
+      }
+      assertFalse(lazy.isLoaded());
+    }
+    // concurrent readers of a lazy composite only see the complete data
+    Composite c = Composite.fromByteBuffer(ByteBuffer.wrap(bytes), false);
+    Composite shared = Composite.fromByteBuffer(ByteBuffer.wrap(bytes), true);
+    List<Thread> threads = new ArrayList<Thread>();
+    List<Throwable> errors = new ArrayList<Throwable>();
+    for (int t = 0; t < 4; t++) {
+      Thread thread = new Thread(() -> {
+        try {
+          for (int y = 0; y < c.getGridHeight(); y += 7)
+            for (int x = 0; x < c.getGridWidth(); x += 7)
+              assertEquals(c.getValue(x, y), shared.getValue(x, y), 0.0);
+        } catch (Throwable th) {
+          synchronized (errors) {
+            errors.add(th);
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads)
+      thread.join();
+    assertEquals(0, errors.size());
+  }
+
+  @Test
+  public void testRowAndRegion() throws Throwable {
+    File sfHistoryFile = new File(
+        "src/test/data/history/raa01-sf_10000-1805301650-dwd---bin.gz");
+    String url = sfHistoryFile.toURI().toURL().toExternalForm();
+    Composite c = new Composite(url);
+    float[] row = c.getRow(450, null);
+    assertEquals(c.getGridWidth(), row.length);
+    for (int x = 0; x < row.length; x++) {
+      assertEquals(c.getValue(x, 450), row[x], 0.0);
+    }
+    // region crossing the left border of the grid
+    int width = 20;
+    int height = 10;
+    float[] region = c.getRegion(-5, 400, width, height, null);
+    for (int ry = 0; ry < height; ry++) {
+      for (int rx = 0; rx < width; rx++) {
+        assertEquals(c.getValue(rx - 5, 400 + ry), region[ry * width + rx],
+            0.0);
+      }
+    }
+  }
+
+  @Test
+  public void testQuantized() throws Throwable {
+    File sfHistoryFile = new File(
+        "src/test/data/history/raa01-sf_10000-1805301650-dwd---bin.gz");
+    String url = sfHistoryFile.toURI().toURL().toExternalForm();
+    Composite c = new Composite(url);
+    Composite lazy = new Composite(url, true);
+    QuantizedComposite q = new QuantizedComposite(lazy);
+    assertFalse(lazy.isLoaded());
+    assertEquals("SF", q.getProduct());
+    assertEquals(c.getGridWidth(), q.getGridWidth());
+    assertEquals(c.getGridHeight(), q.getGridHeight());
+    float[] values = q.toFloat(null);
+    for (int y = 0; y < c.getGridHeight(); y++) {
+      for (int x = 0; x < c.getGridWidth(); x++) {
+        assertEquals(c.getValue(x, y), q.getValue(x, y), 0.0);
+        assertEquals(c.getValue(x, y), values[y * c.getGridWidth() + x], 0.0);
+      }
+    }
+    assertEquals(c.getStatistics().toString(), q.getStatistics().toString());
+  }
+
+  @Test
+  public void testQuantizedElevation() throws Throwable {
+    // reflectivity with 24 rows of vertical projection on top of 200x200
+    byte[] bytes = new TestLayers().getComposite("PF", 200, 224);
+    Composite c = new Composite(new ByteArrayInputStream(bytes));
+    Composite lazy = new Composite(new ByteArrayInputStream(bytes), true);
+    QuantizedComposite q = new QuantizedComposite(lazy);
+    assertEquals(224, q.getPy());
+    assertEquals(200, q.getGridHeight());
+    assertEquals(c.getDataOffset(), q.getDataOffset());
+    float[] values = q.toFloat(null);
+    assertEquals(200 * 200, values.length);
+    float[] row = new float[200];
+    for (int y = 0; y < c.getGridHeight(); y++) {
+      q.getRow(y, row);
+      for (int x = 0; x < c.getGridWidth(); x++) {
+        assertEquals(c.getValue(x, y), q.getValue(x, y), 0.0);
+        assertEquals(c.getValue(x, y), row[x], 0.0);
+        assertEquals(c.getValue(x, y), values[y * c.getGridWidth() + x], 0.0);
+      }
+    }
+    assertEquals(Float.NaN, q.getValue(0, 200), 0.0);
+    assertEquals(c.getStatistics().toString(), q.getStatistics().toString());
+  }
+
+  /**
+   * check that the two composites have the same values
+   * 
+   * @param c
+   * @param other
+   */
+  public void checkSameValues(Composite c, Composite other) {
+    assertEquals(c.getProduct(), other.getProduct());
+    assertEquals(c.getCaptureTime(), other.getCaptureTime());
+    for (int y = 0; y < c.getGridHeight(); y++) {
+      for (int x = 0; x < c.getGridWidth(); x++) {
+        assertEquals(c.getValue(x, y), other.getValue(x, y), 0.0);
+      }
+    }
+    assertEquals(c.getStatistics().toString(),
+        other.getStatistics().toString());
+  }
+
+  @Test
+  public void testStreamDecode() throws Throwable {
+    File sfHistoryFile = new File(
+        "src/test/data/history/raa01-sf_10000-1805301650-dwd---bin.gz");
+    String url = sfHistoryFile.toURI().toURL().toExternalForm();
+    Composite c = new Composite(url);
+    try {
+      Composite.streamDecode = true;
+      Composite streamed = new Composite(url);
+      // no copy of the file content is kept
+      assertNull(streamed.bytes);
+      assertNull(streamed.buffer);
+      checkSameValues(c, streamed);
+    } finally {
+      Composite.streamDecode = false;
+    }
+    // gzipped streams are detected
+    try (InputStream inputStream = new FileInputStream(sfHistoryFile)) {
+      checkSameValues(c, Composite.fromStream(inputStream));
+    }
+  }
+
+  @Test
+  public void testFromPath() throws Throwable {
+    File sfHistoryFile = new File(
+        "src/test/data/history/raa01-sf_10000-1805301650-dwd---bin.gz");
+    Composite c = new Composite(sfHistoryFile.toURI().toURL().toExternalForm());
+    // gzipped file is decoded while decompressing
+    Composite streamed = Composite.fromPath(sfHistoryFile.toPath());
+    checkSameValues(c, streamed);
+    // plain file is memory mapped
+    File plainFile = File.createTempFile("radolan-sf", ".bin");
+    try {
+      FileUtils.writeByteArrayToFile(plainFile, c.bytes);
+      Composite mapped = Composite.fromPath(plainFile.toPath());
+      checkSameValues(c, mapped);
+      Composite lazy = Composite.fromPath(plainFile.toPath(), true);
+      assertFalse(lazy.isLoaded());
+      checkSameValues(c, lazy);
+    } finally {
+      plainFile.delete();
+    }
+  }
+
   @Ignore
   public void testSF1805301650() throws Throwable {
     String history = "src/test/data/history/";
@@ -180,7 +440,7 @@ public class TestData extends BaseTest {
     // assertEquals(0.1,c.getPrecisionFactor(),0.0001);
     assertEquals(c.getDx() * c.getDy() * 2, c.getDataLength());
     assertEquals(c.getDataLength() + c.header.length(), c.bytes.length);
-    assertEquals(c.PlainData.length, c.getDy());
+    assertEquals(c.PlainData.length, c.getDx() * c.getDy());
     assertEquals(Encoding.littleEndian, c.identifyEncoding());
   }
 }
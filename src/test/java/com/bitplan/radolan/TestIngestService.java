@@ -0,0 +1,232 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package com.bitplan.radolan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.bitplan.util.CachedUrl;
+import com.bitplan.util.MirrorServer;
+
+/**
+ * test the ingest of newly published composites
+ * 
+ * @author wf
+ *
+ */
+public class TestIngestService extends BaseTest {
+  File sfHistoryFile = new File(
+      "src/test/data/history/raa01-sf_10000-1805301650-dwd---bin.gz");
+
+  /**
+   * publish a file for the given rw time on the mirror
+   * 
+   * @param mirror
+   * @param dateTime
+   * @throws Exception
+   */
+  public void publish(File mirror, LocalDateTime dateTime) throws Exception {
+    String url = KnownUrl.getUrlForProduct("rw", dateTime);
+    FileUtils.copyFile(sfHistoryFile,
+        new File(mirror, url.substring("https://".length())));
+  }
+
+  @Test
+  public void testIngest() throws Throwable {
+    File dir = Files.createTempDirectory("radolan-ingest").toFile();
+    String cacheRootPath = CachedUrl.cacheRootPath;
+    File mirror = new File(dir, "mirror");
+    Duration catchUp = IngestService.catchUp;
+    try (MirrorServer server = new MirrorServer(mirror, 0).start();
+        IngestService service = new IngestService("rw")) {
+      KnownUrl.setMirror(server.getBaseUrl());
+      CachedUrl.cacheRootPath = new File(dir, "cache").getPath();
+      IngestService.catchUp = Duration.ofHours(2);
+      LocalDateTime now = LocalDateTime.of(2018, 5, 30, 19, 0);
+      service.setClock(Clock.fixed(now.toInstant(ZoneOffset.UTC),
+          ZoneOffset.UTC));
+      CompositeCache cache = new CompositeCache(Long.MAX_VALUE);
+      service.setCompositeCache(cache);
+      List<LocalDateTime> ingested = new ArrayList<LocalDateTime>();
+      service.addListener((product, dateTime, composite) -> {
+        assertEquals("rw", product);
+        assertNotNull(composite);
+        ingested.add(dateTime);
+      });
+      LocalDateTime t1 = LocalDateTime.of(2018, 5, 30, 16, 50);
+      LocalDateTime t2 = t1.plusHours(1);
+      LocalDateTime t3 = t2.plusHours(1);
+      assertEquals(t3, service.getExpected("rw"));
+      publish(mirror, t1);
+      publish(mirror, t2);
+      // the missed intervals are caught up - the missing one is retried soon
+      assertEquals(IngestService.retryDelay, service.poll("rw"));
+      assertEquals(2, ingested.size());
+      assertEquals(t2, service.getLastIngested("rw"));
+      assertNotNull(cache.getIfPresent(CompositeCache.getKey("rw", t2)));
+      // repeated failures back off
+      assertEquals(IngestService.retryDelay.multipliedBy(2),
+          service.poll("rw"));
+      publish(mirror, t3);
+      // the next poll is just after the next publication
+      assertEquals(Duration.ofMinutes(55), service.poll("rw"));
+      assertEquals(3, ingested.size());
+      assertEquals(t3, ingested.get(2));
+      assertEquals(3, cache.size());
+    } finally {
+      IngestService.catchUp = catchUp;
+      KnownUrl.setMirror(null);
+      CachedUrl.cacheRootPath = cacheRootPath;
+      FileUtils.deleteDirectory(dir);
+    }
+  }
+
+  @Test
+  public void testIngestInOrder() throws Throwable {
+    File dir = Files.createTempDirectory("radolan-ingest").toFile();
+    String cacheRootPath = CachedUrl.cacheRootPath;
+    File mirror = new File(dir, "mirror");
+    Duration catchUp = IngestService.catchUp;
+    try (MirrorServer server = new MirrorServer(mirror, 0).start();
+        IngestService service = new IngestService("rw")) {
+      KnownUrl.setMirror(server.getBaseUrl());
+      CachedUrl.cacheRootPath = new File(dir, "cache").getPath();
+      IngestService.catchUp = Duration.ofHours(1);
+      LocalDateTime now = LocalDateTime.of(2018, 5, 30, 18, 0);
+      service.setClock(Clock.fixed(now.toInstant(ZoneOffset.UTC),
+          ZoneOffset.UTC));
+      service.setCompositeCache(new CompositeCache(Long.MAX_VALUE));
+      List<LocalDateTime> ingested = new ArrayList<LocalDateTime>();
+      service.addListener((product, dateTime, composite) -> {
+        ingested.add(dateTime);
+      });
+      LocalDateTime t1 = LocalDateTime.of(2018, 5, 30, 16, 50);
+      LocalDateTime t2 = t1.plusHours(1);
+      assertEquals(t2, service.getExpected("rw"));
+      // t1 is missing - t2 must not overtake it
+      publish(mirror, t2);
+      assertEquals(IngestService.retryDelay, service.poll("rw"));
+      assertEquals(0, ingested.size());
+      assertNull(service.getLastIngested("rw"));
+      publish(mirror, t1);
+      // a failing listener is reported and the composite is not pushed again
+      service.addListener((product, dateTime, composite) -> {
+        if (dateTime.equals(t1))
+          throw new IllegalStateException("listener failure");
+      });
+      try {
+        service.poll("rw");
+        fail("the listener failure should be reported");
+      } catch (IngestService.ListenerException le) {
+        assertEquals("listener failure", le.getCause().getMessage());
+      }
+      assertEquals(1, ingested.size());
+      service.poll("rw");
+      assertEquals(2, ingested.size());
+      assertEquals(t1, ingested.get(0));
+      assertEquals(t2, ingested.get(1));
+    } finally {
+      IngestService.catchUp = catchUp;
+      KnownUrl.setMirror(null);
+      CachedUrl.cacheRootPath = cacheRootPath;
+      FileUtils.deleteDirectory(dir);
+    }
+  }
+
+  @Test
+  public void testIngestGap() throws Throwable {
+    File dir = Files.createTempDirectory("radolan-ingest").toFile();
+    String cacheRootPath = CachedUrl.cacheRootPath;
+    File mirror = new File(dir, "mirror");
+    Duration catchUp = IngestService.catchUp;
+    try (MirrorServer server = new MirrorServer(mirror, 0).start();
+        IngestService service = new IngestService("rw")) {
+      KnownUrl.setMirror(server.getBaseUrl());
+      CachedUrl.cacheRootPath = new File(dir, "cache").getPath();
+      IngestService.catchUp = Duration.ofHours(5);
+      LocalDateTime now = LocalDateTime.of(2018, 5, 30, 19, 0);
+      service.setClock(Clock.fixed(now.toInstant(ZoneOffset.UTC),
+          ZoneOffset.UTC));
+      service.setCompositeCache(new CompositeCache(Long.MAX_VALUE));
+      List<LocalDateTime> ingested = new ArrayList<LocalDateTime>();
+      service.addListener((product, dateTime, composite) -> {
+        ingested.add(dateTime);
+      });
+      LocalDateTime t1 = LocalDateTime.of(2018, 5, 30, 15, 50);
+      LocalDateTime t2 = t1.plusHours(1);
+      LocalDateTime t3 = t2.plusHours(1);
+      LocalDateTime t4 = t3.plusHours(1);
+      assertEquals(t4, service.getExpected("rw"));
+      // t1 is missing for maxStall steps - it no longer holds back t2 to t4
+      publish(mirror, t2);
+      publish(mirror, t3);
+      publish(mirror, t4);
+      assertEquals(Duration.ofMinutes(55), service.poll("rw"));
+      assertEquals(3, ingested.size());
+      assertEquals(t2, ingested.get(0));
+      assertEquals(t4, service.getLastIngested("rw"));
+      // t1 shows up late and is pushed with the next poll
+      publish(mirror, t1);
+      service.poll("rw");
+      assertEquals(4, ingested.size());
+      assertEquals(t1, ingested.get(3));
+    } finally {
+      IngestService.catchUp = catchUp;
+      KnownUrl.setMirror(null);
+      CachedUrl.cacheRootPath = cacheRootPath;
+      FileUtils.deleteDirectory(dir);
+    }
+  }
+
+  @Test
+  public void testUnknownProduct() {
+    try {
+      new IngestService("rw", "xx").close();
+      fail("an unknown product should be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try (IngestService service = new IngestService("hourly")) {
+      assertNull(service.getLastIngested("rw"));
+      service.getLastIngested("ry");
+      fail("a product that is not ingested should be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
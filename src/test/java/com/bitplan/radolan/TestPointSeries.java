@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package com.bitplan.radolan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.bitplan.geo.DPoint;
+import com.bitplan.geo.IPoint;
+import com.bitplan.util.CachedUrl;
+
+import cs.fau.de.since.radolan.Composite;
+
+/**
+ * test reading single values without decoding the grid
+ * 
+ * @author wf
+ *
+ */
+public class TestPointSeries extends BaseTest {
+  File sfHistoryFile = new File(
+      "src/test/data/history/raa01-sf_10000-1805301650-dwd---bin.gz");
+
+  @Test
+  public void testPointValues() throws Throwable {
+    Composite c = new Composite(sfHistoryFile.toURI().toURL().toExternalForm());
+    File dir = Files.createTempDirectory("radolan-point").toFile();
+    try {
+      File plainFile = new File(dir, "raa01-sf_10000-1805301650-dwd---bin");
+      byte[] bytes;
+      try (InputStream in = new FileInputStream(sfHistoryFile)) {
+        bytes = CachedUrl.readBytes(in);
+      }
+      FileUtils.writeByteArrayToFile(plainFile, bytes);
+      DPoint[] coords = { new DPoint(50.0, 8.0), new DPoint(51.2, 6.5),
+          new DPoint(53.5, 10.0), new DPoint(48.1, 11.6),
+          new DPoint(52.5, 13.4), new DPoint(0, 0) };
+      for (DPoint coord : coords) {
+        PointSeries series = new PointSeries("sf", coord);
+        IPoint gp = series.getGridPoint(c);
+        float expected = c.getValue(gp.x, gp.y);
+        assertEquals(new IPoint(c.translateLatLonToGrid(coord.x, coord.y)).x,
+            gp.x);
+        for (float value : new float[] {
+            series.readValue(sfHistoryFile.toPath()),
+            series.readValue(plainFile.toPath()),
+            series.readValue(ByteBuffer.wrap(bytes)) }) {
+          if (Float.isNaN(expected))
+            assertTrue(Float.isNaN(value));
+          else
+            assertEquals(expected, value, 0.0);
+        }
+      }
+      // reading a year of values from a plain file only reads the header
+      // and the value
+      PointSeries series = new PointSeries("sf", coords[0]);
+      long start = System.currentTimeMillis();
+      for (int day = 0; day < 365; day++)
+        series.readValue(plainFile.toPath());
+      long millis = System.currentTimeMillis() - start;
+      if (debug)
+        System.out.println(
+            String.format("read 365 point values in %d msecs", millis));
+    } finally {
+      FileUtils.deleteDirectory(dir);
+    }
+  }
+}
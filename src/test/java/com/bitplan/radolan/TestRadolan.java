@@ -223,8 +223,8 @@ public class TestRadolan extends BaseTest {
    * create a fake gradient of values
    */
   public static Consumer<Composite> fakeGradient = composite -> {
-    for (int y = 0; y < composite.PlainData.length; y++) {
-      for (int x = 0; x < composite.PlainData[y].length; x++) {
+    for (int y = 0; y < composite.getPy(); y++) {
+      for (int x = 0; x < composite.getPx(); x++) {
         composite.setValue(x, y, (float) (y / 900.0 * 250.0));
       }
     }
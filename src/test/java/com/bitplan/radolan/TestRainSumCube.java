@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package com.bitplan.radolan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import cs.fau.de.since.radolan.Catalog.Unit;
+
+/**
+ * test the prefix sum time cube
+ * 
+ * @author wf
+ *
+ */
+public class TestRainSumCube extends BaseTest {
+
+  @Test
+  public void testRainSumCube() throws Throwable {
+    int width = 6;
+    int height = 4;
+    File dir = Files.createTempDirectory("radolan-cube").toFile();
+    File cubeFile = new File(dir, "sf.cube");
+    ZonedDateTime start = ZonedDateTime.of(2018, 5, 1, 23, 50, 0, 0,
+        ZoneOffset.UTC);
+    Duration day = Duration.ofDays(1);
+    Random random = new Random(4711);
+    float[][] days = new float[10][];
+    try {
+      try (RainSumCube cube = RainSumCube.create(cubeFile, "sf", width,
+          height, start, day, Unit.Unit_mm)) {
+        for (int d = 0; d < days.length; d++) {
+          // day 6 is missing
+          if (d == 6)
+            continue;
+          days[d] = new float[width * height];
+          for (int i = 0; i < days[d].length; i++)
+            days[d][i] = random.nextInt(200) / 10.0f;
+          days[d][5] = d == 2 ? Float.NaN : days[d][5];
+          ZonedDateTime captureTime = start.plus(day.multipliedBy(d));
+          cube.append(new MappedRadarImage(FloatBuffer.wrap(days[d]), width,
+              height, Unit.Unit_mm, day, captureTime), captureTime);
+        }
+        assertEquals(10, cube.getCount());
+      }
+      try (RainSumCube cube = RainSumCube.open(cubeFile, true)) {
+        assertEquals(start.plus(day.multipliedBy(9)), cube.getEnd());
+        for (int a = 0; a < 10; a++) {
+          for (int b = a; b < 10; b++) {
+            ZonedDateTime from = start.plus(day.multipliedBy(a));
+            ZonedDateTime to = start.plus(day.multipliedBy(b));
+            RadarImage sum = cube.getSum(from, to);
+            assertEquals(day.multipliedBy(b - a + 1), sum.getInterval());
+            for (int y = 0; y < height; y++) {
+              for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                double expected = 0;
+                for (int d = a; d <= b; d++)
+                  expected += d == 6 ? Double.NaN : days[d][i];
+                float point = cube.getSum(x, y, from, to);
+                if (Double.isNaN(expected)) {
+                  assertTrue(Float.isNaN(point));
+                  assertTrue(Float.isNaN(sum.getValue(x, y)));
+                } else {
+                  assertEquals(expected, point, 0.01);
+                  assertEquals(expected, sum.getValue(x, y), 0.01);
+                }
+              }
+            }
+          }
+        }
+        // whole days can be given by their start
+        assertEquals(days[0][0] + days[1][0],
+            cube.getSum(0, 0, start.minusHours(23).minusMinutes(50),
+                start.plusDays(1)), 0.01);
+        // windows that are not covered by the cube are unknown
+        ZonedDateTime end = cube.getEnd();
+        assertTrue(Float.isNaN(cube.getSum(0, 0, start.minusDays(1), start)));
+        assertTrue(Float.isNaN(cube.getSum(0, 0, end, end.plusDays(1))));
+        assertTrue(Float.isNaN(
+            cube.getSum(start.minusDays(1), end).getValue(0, 0)));
+        assertEquals(days[9][0], cube.getSum(0, 0, end, end.plusHours(23)),
+            0.01);
+      }
+    } finally {
+      FileUtils.deleteDirectory(dir);
+    }
+  }
+}
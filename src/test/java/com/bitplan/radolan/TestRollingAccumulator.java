@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package com.bitplan.radolan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.FloatBuffer;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cs.fau.de.since.radolan.Catalog.Unit;
+
+/**
+ * test the rolling sums over sliding windows
+ * 
+ * @author wf
+ *
+ */
+public class TestRollingAccumulator extends BaseTest {
+  int width = 7;
+  int height = 5;
+
+  /**
+   * get a random image
+   * 
+   * @param random
+   * @param dateTime
+   * @return - the image
+   */
+  public RadarImage randomImage(Random random, LocalDateTime dateTime) {
+    float[] values = new float[width * height];
+    for (int i = 0; i < values.length; i++)
+      values[i] = random.nextInt(100) / 10.0f;
+    return new MappedRadarImage(FloatBuffer.wrap(values), width, height,
+        Unit.Unit_mm, Duration.ofHours(1), dateTime.atZone(ZoneOffset.UTC));
+  }
+
+  @Test
+  public void testRollingSums() {
+    Duration h3 = Duration.ofHours(3);
+    Duration h24 = Duration.ofHours(24);
+    RollingAccumulator accumulator = new RollingAccumulator("rw", h3, h24);
+    Random random = new Random(4711);
+    List<RadarImage> images = new ArrayList<RadarImage>();
+    LocalDateTime start = LocalDateTime.of(2018, 5, 30, 0, 50);
+    for (int hour = 0; hour < 40; hour++) {
+      LocalDateTime dateTime = start.plusHours(hour);
+      // a missing hour
+      if (hour == 30)
+        continue;
+      RadarImage image = randomImage(random, dateTime);
+      images.add(image);
+      accumulator.add(dateTime, image);
+      for (Duration window : new Duration[] { h3, h24 }) {
+        RadarImage sum = accumulator.getSum(window);
+        assertEquals(window, sum.getInterval());
+        int hours = (int) window.toHours();
+        for (int y = 0; y < height; y++) {
+          for (int x = 0; x < width; x++) {
+            double expected = 0;
+            for (int h = Math.max(0, hour - hours + 1); h <= hour; h++) {
+              if (h == 30)
+                continue;
+              expected += images.get(h < 30 ? h : h - 1).getValue(x, y);
+            }
+            assertEquals(expected, sum.getValue(x, y), 0.001);
+          }
+        }
+      }
+    }
+    // the missing hour is still in the 24h window
+    assertFalse(accumulator.isComplete(h24));
+    assertEquals(23, accumulator.getCount(h24));
+    assertTrue(accumulator.isComplete(h3));
+    RadarImage h24Sum = accumulator.getSum(h24);
+    RadarImage h3Sum = accumulator.getSum(h3);
+    // the missing hour arrives late
+    RadarImage late = randomImage(random, start.plusHours(30));
+    accumulator.add(start.plusHours(30), late);
+    assertTrue(accumulator.isComplete(h24));
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        assertEquals(h24Sum.getValue(x, y) + late.getValue(x, y),
+            accumulator.getSum(h24).getValue(x, y), 0.001);
+        assertEquals(h3Sum.getValue(x, y), accumulator.getSum(h3).getValue(x, y),
+            0.0);
+      }
+    }
+    try {
+      accumulator.add(start.plusHours(30), late);
+      fail("composites can not be added twice");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      accumulator.add(start, images.get(0));
+      fail("composites older than the longest window can not be added");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testNaN() {
+    Duration h2 = Duration.ofHours(2);
+    RollingAccumulator accumulator = new RollingAccumulator("rw", h2);
+    LocalDateTime start = LocalDateTime.of(2018, 5, 30, 0, 50);
+    Random random = new Random(4711);
+    RadarImage nanImage = randomImage(random, start);
+    ((MappedRadarImage) nanImage).getValues().put(3, Float.NaN);
+    accumulator.add(start, nanImage);
+    accumulator.add(start.plusHours(1), randomImage(random, start));
+    assertTrue(Float.isNaN(accumulator.getSum(h2).getValue(3, 0)));
+    // the NaN drops out of the window
+    accumulator.add(start.plusHours(2), randomImage(random, start));
+    assertFalse(Float.isNaN(accumulator.getSum(h2).getValue(3, 0)));
+    // a window added later is initialized from the history
+    accumulator.addWindow(Duration.ofHours(1));
+    assertEquals(1, accumulator.getCount(Duration.ofHours(1)));
+  }
+
+  @Test
+  public void testOverlappingProduct() {
+    try {
+      new RollingAccumulator("sf", Duration.ofHours(48));
+      fail("the hourly 24h sums of sf can not be added up");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
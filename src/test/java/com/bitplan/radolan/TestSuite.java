@@ -28,13 +28,19 @@ import org.junit.runners.Suite;
 
 import cs.fau.de.since.radolan.TestConversion;
 import cs.fau.de.since.radolan.TestHeader;
+import cs.fau.de.since.radolan.TestLayers;
+import cs.fau.de.since.radolan.TestRunLength;
 import cs.fau.de.since.radolan.TestTranslate;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({ TestDebug.class, TestDWD.class, TestUnLocodeManager.class,
     TestKnownUrls.class, TestTranslate.class, TestConversion.class,
-    TestData.class, TestCache.class, TestHeader.class, TestZoom.class,
-    TestRadolan.class, TestHistory.class,TestGraph.class })
+    TestData.class, TestCache.class, TestHeader.class, TestRunLength.class, TestLayers.class, TestZoom.class,
+    TestRadolan.class, TestHistory.class,TestGraph.class,
+    TestCompositeStore.class, TestCompositeArchive.class,
+    TestCompositeCache.class, TestIngestService.class,
+    TestRollingAccumulator.class, TestPointSeries.class,
+    TestRainSumCube.class })
 /**
  * TestSuite
  * 
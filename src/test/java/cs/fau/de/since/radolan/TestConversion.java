@@ -23,6 +23,10 @@
  */
 package cs.fau.de.since.radolan;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
 
 import com.bitplan.radolan.Testing;
@@ -76,4 +80,34 @@ public class TestConversion extends Testing {
     }
   }
 
+  @Test
+  public void testDecodeTable() {
+    int[] precisions = { 0, -1, -2 };
+    for (Catalog.Unit unit : Catalog.Unit.values()) {
+      for (int precision : precisions) {
+        Composite c = new Composite();
+        c.setPrecision(precision);
+        c.setDataUnit(unit);
+        DecodeTable table = c.getDecodeTable();
+        assertSame(table, DecodeTable.getTable(precision, unit));
+        for (int high = 0; high < 256; high++) {
+          for (int low = 0; low < 256; low++) {
+            float expected = Float.NaN;
+            if ((high & (1 << 5)) == 0) {
+              int value = ((high & 0x0F) << 8) | low;
+              if ((high & (1 << 6)) != 0)
+                value *= -1;
+              expected = (float) c.rvp6Raw(value);
+              if (unit == Catalog.Unit.Unit_dBZ)
+                expected = toDBZ(expected);
+            }
+            assertEquals(Float.floatToIntBits(expected), Float.floatToIntBits(
+                LittleEndian.rvp6LittleEndian(c, (byte) low, (byte) high)));
+          }
+        }
+        assertTrue(Float.isNaN(table.getSingleByte()[250]));
+      }
+    }
+  }
+
 }
@@ -27,6 +27,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.ZonedDateTime;
@@ -195,4 +196,21 @@ public class TestHeader extends Testing {
     }
   }
 
+  @Test
+  public void testHeaderRecord() throws Exception {
+    // all fortran F5.1 level values need to parse exactly as the JDK does
+    for (int i = -999; i <= 9999; i++) {
+      String lv = String.format("%5.1f", i / 10.0);
+      HeaderRecord r = new HeaderRecord();
+      String header = "PG262115100000616BY22205LV 1" + lv
+          + "BG460460\u0003";
+      r.scan(ByteBuffer.wrap(header.getBytes(StandardCharsets.ISO_8859_1)));
+      assertEquals(header.length(), r.getLength());
+      int begin = r.begin(HeaderRecord.Field.LV);
+      assertEquals(lv, Float.parseFloat(lv), r.getFloat(begin + 2, begin + 7),
+          0);
+      assertEquals(22205, r.getInt(HeaderRecord.Field.BY));
+    }
+  }
+
 }
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package cs.fau.de.since.radolan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.bitplan.radolan.Testing;
+
+/**
+ * test the arrangement of the data layers
+ * 
+ * @author wf
+ *
+ */
+public class TestLayers extends Testing {
+
+  /**
+   * get a single byte encoded composite for the given local product - the
+   * bytes of each row are the row number in the file modulo 200
+   * 
+   * @param product
+   * @param px
+   * @param py
+   * @return - the composite bytes
+   * @throws Exception
+   */
+  public byte[] getComposite(String product, int px, int py) throws Exception {
+    String header = product + "262115100000616BY%7dVS 3SW 2.13.1PR E+00\u0003";
+    int length = String.format(header, 0).length() + px * py;
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.write(
+        String.format(header, length).getBytes(StandardCharsets.ISO_8859_1));
+    for (int y = 0; y < py; y++) {
+      for (int x = 0; x < px; x++) {
+        bytes.write(y % 200);
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * check the value of the given layer position
+   * 
+   * @param c
+   * @param z
+   * @param x
+   * @param y
+   */
+  public void checkValue(Composite c, int z, int x, int y) {
+    float[] table = c.getDecodeTable().getSingleByte();
+    // the rows are written vertically flipped
+    int fileRow = c.getPy() - 1 - (c.getLayerOffset(z) / c.getPx() + y);
+    float expected = table[fileRow % 200];
+    assertEquals(expected, c.getValue(z, x, y), 0);
+    assertEquals(expected, c.getLayer(z).getValue(x, y), 0);
+  }
+
+  @Test
+  public void testLayers() throws Throwable {
+    // 3D reflectivity CAPPI with 12 layers of 200x200
+    Composite c = new Composite(
+        new ByteArrayInputStream(getComposite("PZ", 200, 2400)));
+    assertEquals(200, c.getGridWidth());
+    assertEquals(200, c.getGridHeight());
+    assertEquals(12, c.getLayerCount());
+    for (int z = 0; z < c.getLayerCount(); z++) {
+      assertEquals(z * 200 * 200, c.getLayerOffset(z));
+      checkValue(c, z, 0, 0);
+      checkValue(c, z, 199, 199);
+    }
+    // the layer is a view on the plain data
+    CompositeLayer layer = c.getLayer(3);
+    c.PlainData[c.getLayerOffset(3) + 5 * 200 + 7] = 42f;
+    assertEquals(42f, layer.getValue(7, 5), 0);
+    assertEquals(42f, layer.getRow(5, null)[7], 0);
+    assertSame(c, layer.getComposite());
+    assertEquals(c.getValue(0, 0), c.getValue(0, 0, 0), 0);
+  }
+
+  @Test
+  public void testStripElevation() throws Throwable {
+    // reflectivity with 24 rows of vertical projection on top of 200x200
+    Composite c = new Composite(
+        new ByteArrayInputStream(getComposite("PF", 200, 224)));
+    assertEquals(1, c.getLayerCount());
+    assertEquals(24 * 200, c.getDataOffset());
+    assertEquals(200 * 224, c.PlainData.length);
+    checkValue(c, 0, 0, 0);
+    checkValue(c, 0, 100, 199);
+    float[] row = c.getRow(199, null);
+    assertEquals(c.getValue(100, 199), row[100], 0);
+    assertEquals(Float.NaN, c.getValue(0, 200), 0);
+  }
+}
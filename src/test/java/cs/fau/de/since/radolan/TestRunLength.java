@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2018 BITPlan GmbH
+ *
+ * http://www.bitplan.com
+ *
+ * This file is part of the Opensource project at:
+ * https://github.com/BITPlan/com.bitplan.radolan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Parts which are derived from https://gitlab.cs.fau.de/since/radolan are also
+ * under MIT license.
+ */
+package cs.fau.de.since.radolan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.bitplan.radolan.Testing;
+
+/**
+ * test the runlength encoding
+ * 
+ * @author wf
+ *
+ */
+public class TestRunLength extends Testing {
+
+  /**
+   * get a runlength encoded PG composite with a 4 x 3 grid for the given lines
+   * 
+   * @param lines
+   * @return - the composite bytes
+   * @throws Exception
+   */
+  public byte[] getComposite(int[]... lines) throws Exception {
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    for (int[] line : lines) {
+      for (int value : line)
+        data.write(value);
+      data.write(RunLength.NEWLINE);
+    }
+    String header = "PG262115100000616BY%6dLV 6  1.0 19.0 28.0 37.0 46.0 55.0CS0MX 0MS "
+        + "10<boo,ros> are used, BG003004\u0003";
+    int length = String.format(header, 0).length() + data.size();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.write(
+        String.format(header, length).getBytes(StandardCharsets.ISO_8859_1));
+    bytes.write(data.toByteArray());
+    return bytes.toByteArray();
+  }
+
+  @Test
+  public void testParseRunlength() throws Throwable {
+    byte[] bytes = getComposite(new int[] { 1, 17, 0x21 },
+        new int[] { 2, 16, 0x46 }, new int[] { 3, 20 });
+    Composite c = new Composite(new ByteArrayInputStream(bytes));
+    assertEquals(Data.Encoding.runlength, c.identifyEncoding());
+    checkRunlength(c);
+    Composite streamed = Composite
+        .fromStream(new ByteArrayInputStream(bytes));
+    checkRunlength(streamed);
+  }
+
+  /**
+   * check the values of the runlength test composite
+   * 
+   * @param c
+   */
+  public void checkRunlength(Composite c) {
+    float[][] expected = { { Float.NaN, 1.0f, 1.0f, Float.NaN },
+        { 55.0f, 55.0f, 55.0f, 55.0f },
+        { Float.NaN, Float.NaN, Float.NaN, Float.NaN } };
+    for (int y = 0; y < expected.length; y++) {
+      for (int x = 0; x < expected[y].length; x++) {
+        assertEquals(expected[y][x], c.getValue(x, y), 0.0001);
+      }
+    }
+    assertEquals(12, c.getStatistics().getTotal());
+  }
+
+  @Test
+  public void testInvalidRunlength() throws Throwable {
+    // offset values have to be at least 16
+    byte[] bytes = getComposite(new int[] { 1, 15 }, new int[] { 2 },
+        new int[] { 3 });
+    Throwable error = null;
+    try {
+      new Composite(new ByteArrayInputStream(bytes));
+    } catch (Throwable th) {
+      error = th;
+    }
+    assertNotNull(error);
+    assertTrue(error.getMessage().contains("invalid offset value"));
+  }
+}